@@ -0,0 +1,318 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A FermiLiteBackend that assembles through the Foreign Function &amp; Memory API (Java 22).
+ * This is an FFM front end to the C wrapper in libfml, not a replacement for it:  the native library is still
+ * needed, and the assembly itself is done by its fmljni_assembleReadData entry point (which takes no JNIEnv), just
+ * as the JNI path does it.  What's different is how data crosses the boundary.
+ * The reads are copied, in one pass, into a single block with no 2GB limit.  It lives in a confined arena of its
+ * own, so that when it fills up it can be copied into a block twice the size in a new arena, and the old arena closed
+ * right away.  fermi-lite copies the reads into its own structures, so the block is freed as soon as the native call
+ * returns, rather than when the assembly is done.  The read count is a 32-bit int, because that's what fermi-lite
+ * takes.  The options are written field by field into an
+ * fml_opt_t, through its layout, from the assembler's getters.  The unitigs are read straight out of fermi-lite's
+ * structures, and freed by fml_utg_destroy as soon as they've been copied.  Everything else lives in a confined
+ * arena that's closed when the call returns.
+ */
+final class FermiLiteFFMBackend implements FermiLiteBackend {
+    private static final StructLayout MAGOPT_T = MemoryLayout.structLayout(
+            JAVA_INT.withName("flag"),
+            JAVA_INT.withName("min_ovlp"),
+            JAVA_INT.withName("min_elen"),
+            JAVA_INT.withName("min_ensr"),
+            JAVA_INT.withName("min_insr"),
+            JAVA_INT.withName("max_bdist"),
+            JAVA_INT.withName("max_bdiff"),
+            JAVA_INT.withName("max_bvtx"),
+            JAVA_INT.withName("min_merge_len"),
+            JAVA_INT.withName("trim_len"),
+            JAVA_INT.withName("trim_depth"),
+            JAVA_FLOAT.withName("min_dratio1"),
+            JAVA_FLOAT.withName("max_bcov"),
+            JAVA_FLOAT.withName("max_bfrac"));
+    private static final StructLayout FML_OPT_T = MemoryLayout.structLayout(
+            JAVA_INT.withName("n_threads"),
+            JAVA_INT.withName("ec_k"),
+            JAVA_INT.withName("min_cnt"),
+            JAVA_INT.withName("max_cnt"),
+            JAVA_INT.withName("min_asm_ovlp"),
+            JAVA_INT.withName("min_merge_len"),
+            MAGOPT_T.withName("mag_opt"));
+    // the bit fields of an fml_ovlp_t:  uint32_t len:31, from:1; uint32_t id:31, to:1;
+    private static final StructLayout FML_OVLP_T = MemoryLayout.structLayout(
+            JAVA_INT.withName("len_from"),
+            JAVA_INT.withName("id_to"));
+    private static final StructLayout FML_UTG_T = MemoryLayout.structLayout(
+            JAVA_INT.withName("len"),
+            JAVA_INT.withName("nsr"),
+            ADDRESS.withName("seq"),
+            ADDRESS.withName("cov"),
+            MemoryLayout.sequenceLayout(2, JAVA_INT).withName("n_ovlp"),
+            ADDRESS.withName("ovlp"));
+
+    private static final VarHandle OPT_N_THREADS = optField("n_threads");
+    private static final VarHandle OPT_EC_K = optField("ec_k");
+    private static final VarHandle OPT_MIN_CNT = optField("min_cnt");
+    private static final VarHandle OPT_MAX_CNT = optField("max_cnt");
+    private static final VarHandle OPT_MIN_ASM_OVLP = optField("min_asm_ovlp");
+    private static final VarHandle OPT_MIN_MERGE_LEN = optField("min_merge_len");
+    private static final VarHandle MAG_FLAG = magOptField("flag");
+    private static final VarHandle MAG_MIN_OVLP = magOptField("min_ovlp");
+    private static final VarHandle MAG_MIN_ELEN = magOptField("min_elen");
+    private static final VarHandle MAG_MIN_ENSR = magOptField("min_ensr");
+    private static final VarHandle MAG_MIN_INSR = magOptField("min_insr");
+    private static final VarHandle MAG_MAX_BDIST = magOptField("max_bdist");
+    private static final VarHandle MAG_MAX_BDIFF = magOptField("max_bdiff");
+    private static final VarHandle MAG_MAX_BVTX = magOptField("max_bvtx");
+    private static final VarHandle MAG_MIN_MERGE_LEN = magOptField("min_merge_len");
+    private static final VarHandle MAG_TRIM_LEN = magOptField("trim_len");
+    private static final VarHandle MAG_TRIM_DEPTH = magOptField("trim_depth");
+    private static final VarHandle MAG_MIN_DRATIO1 = magOptField("min_dratio1");
+    private static final VarHandle MAG_MAX_BCOV = magOptField("max_bcov");
+    private static final VarHandle MAG_MAX_BFRAC = magOptField("max_bfrac");
+
+    private static final long UTG_LEN = offset(FML_UTG_T, "len");
+    private static final long UTG_NSR = offset(FML_UTG_T, "nsr");
+    private static final long UTG_SEQ = offset(FML_UTG_T, "seq");
+    private static final long UTG_COV = offset(FML_UTG_T, "cov");
+    private static final long UTG_N_OVLP = offset(FML_UTG_T, "n_ovlp");
+    private static final long UTG_OVLP = offset(FML_UTG_T, "ovlp");
+    private static final long OVLP_LEN_FROM = offset(FML_OVLP_T, "len_from");
+    private static final long OVLP_ID_TO = offset(FML_OVLP_T, "id_to");
+
+    private static final long INITIAL_READ_DATA_SIZE = 1L << 16;
+    private static final int N_STAGES = FermiLiteAssemblyMetrics.Stage.values().length;
+
+    private final MethodHandle assembleReadData;
+    private final MethodHandle fmlUtgDestroy;
+
+    FermiLiteFFMBackend( final String libPath ) {
+        final Linker linker = Linker.nativeLinker();
+        final SymbolLookup fml = SymbolLookup.libraryLookup(Path.of(libPath), Arena.global());
+        assembleReadData = linker.downcallHandle(fml.find("fmljni_assembleReadData").orElseThrow(),
+                FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+        fmlUtgDestroy = linker.downcallHandle(fml.find("fml_utg_destroy").orElseThrow(),
+                FunctionDescriptor.ofVoid(JAVA_INT, ADDRESS));
+    }
+
+    @Override
+    public String getName() { return FFM; }
+
+    @Override
+    public <T> FermiLiteAssembly createAssembly( final FermiLiteAssembler assembler, final Iterable<T> reads,
+                                                 final Function<T,FermiLiteAssembler.BasesAndQuals> func ) {
+        final Object event = FermiLiteAssemblyMetrics.beginEvent();
+        final long startTime = System.nanoTime();
+        final ReadData readData = new ReadData();
+        try ( final Arena arena = Arena.ofConfined() ) {
+            for ( final T read : reads ) {
+                readData.add(func.apply(read));
+            }
+            final int nReads = readData.nReads;
+            final long nBases = readData.nBases;
+            final MemorySegment lengths = arena.allocate(JAVA_INT.byteSize()*Math.max(nReads, 1), JAVA_INT.byteAlignment());
+            MemorySegment.copy(readData.lengths, 0, lengths, JAVA_INT, 0, nReads);
+            final MemorySegment opt = arena.allocate(FML_OPT_T);
+            setOpts(opt, assembler);
+            final MemorySegment nUnitigsSeg = arena.allocate(JAVA_INT);
+            nUnitigsSeg.set(JAVA_INT, 0, 0);
+            final MemorySegment stageNanosSeg = arena.allocate(JAVA_LONG.byteSize()*N_STAGES, JAVA_LONG.byteAlignment());
+            final long marshalNanos = System.nanoTime() - startTime;
+
+            final long[] nativeNanos = new long[1];
+            final MemorySegment unitigs = FermiLiteMemoryBudget.reserveForAssembly(1, nReads, nBases, () -> {
+                final long nativeStartTime = System.nanoTime();
+                final MemorySegment result = nReads == 0 ? MemorySegment.NULL :
+                        assemble(opt, nReads, lengths, readData.data, nUnitigsSeg, stageNanosSeg);
+                nativeNanos[0] = System.nanoTime() - nativeStartTime;
+                return result;
+            });
+            final long nativeTime = System.nanoTime();
+            readData.free(); // the reads have been copied into fermi-lite's structures
+            final int nUnitigs = nUnitigsSeg.get(JAVA_INT, 0);
+            if ( nUnitigs < 0 ) throw new IllegalStateException("Unable to assemble reads. Out of memory?");
+            final FermiLiteAssembly assembly;
+            long nEdges = 0;
+            long resultBytes = nUnitigs*FML_UTG_T.byteSize();
+            try {
+                assembly = readUnitigs(nUnitigs, unitigs);
+                for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+                    nEdges += contig.getConnections().size();
+                    resultBytes += 2L*contig.getSequence().length;
+                }
+                resultBytes += nEdges*FML_OVLP_T.byteSize();
+            } finally {
+                if ( !unitigs.equals(MemorySegment.NULL) ) fmlUtgDestroy.invokeExact(nUnitigs, unitigs);
+            }
+            final long decodeNanos = System.nanoTime() - nativeTime;
+            final long[] stageNanos = nReads == 0 ? new long[N_STAGES] : stageNanosSeg.toArray(JAVA_LONG);
+            assembler.recordMetrics(new FermiLiteAssemblyMetrics(1, nReads, nBases, marshalNanos,
+                    nativeNanos[0], stageNanos, nUnitigs, nEdges, resultBytes, decodeNanos), event);
+            return assembly;
+        } catch ( final RuntimeException | Error e ) {
+            throw e;
+        } catch ( final Throwable t ) {
+            throw new IllegalStateException("Unable to call fermi-lite.", t);
+        } finally {
+            readData.free();
+        }
+    }
+
+    // Fills in an fml_opt_t from the assembler's options.
+    private static void setOpts( final MemorySegment opt, final FermiLiteAssembler assembler ) {
+        OPT_N_THREADS.set(opt, 0L, assembler.getNThreads());
+        OPT_EC_K.set(opt, 0L, assembler.getECKSize());
+        OPT_MIN_CNT.set(opt, 0L, assembler.getMinCnt());
+        OPT_MAX_CNT.set(opt, 0L, assembler.getMaxCnt());
+        OPT_MIN_ASM_OVLP.set(opt, 0L, assembler.getMinAsmOverlap());
+        OPT_MIN_MERGE_LEN.set(opt, 0L, assembler.getMinMergeLen());
+        MAG_FLAG.set(opt, 0L, assembler.getCleaningFlag());
+        MAG_MIN_OVLP.set(opt, 0L, assembler.getCleaningMinOverlap());
+        MAG_MIN_ELEN.set(opt, 0L, assembler.getCleaningELen());
+        MAG_MIN_ENSR.set(opt, 0L, assembler.getCleaningMinEnsr());
+        MAG_MIN_INSR.set(opt, 0L, assembler.getCleaningMinInsr());
+        MAG_MAX_BDIST.set(opt, 0L, assembler.getCleaningMaxBDist());
+        MAG_MAX_BDIFF.set(opt, 0L, assembler.getCleaningMaxBDiff());
+        MAG_MAX_BVTX.set(opt, 0L, assembler.getCleaningMaxBVtx());
+        MAG_MIN_MERGE_LEN.set(opt, 0L, assembler.getCleaningMinMergeLen());
+        MAG_TRIM_LEN.set(opt, 0L, assembler.getCleaningTrimLen());
+        MAG_TRIM_DEPTH.set(opt, 0L, assembler.getCleaningTrimDepth());
+        MAG_MIN_DRATIO1.set(opt, 0L, assembler.getCleaningDRatio1());
+        MAG_MAX_BCOV.set(opt, 0L, assembler.getCleaningMaxBCov());
+        MAG_MAX_BFRAC.set(opt, 0L, assembler.getCleaningMaxBFrac());
+    }
+
+    // Calls fmljni_assembleReadData, and returns the unitigs.
+    private MemorySegment assemble( final MemorySegment opt, final int nReads, final MemorySegment lengths,
+                                    final MemorySegment data, final MemorySegment nUnitigsSeg,
+                                    final MemorySegment stageNanosSeg ) {
+        try {
+            return (MemorySegment)assembleReadData.invokeExact(opt, nReads, lengths, data, nUnitigsSeg, stageNanosSeg);
+        } catch ( final RuntimeException | Error e ) {
+            throw e;
+        } catch ( final Throwable t ) {
+            throw new IllegalStateException("Unable to call fermi-lite.", t);
+        }
+    }
+
+    // The reads, marshalled as fmljni_assembleReadData expects:  the bases and then the quals of each read, one
+    // after another, in a block that's replaced by a bigger one as needed, and the length of each read.
+    private static final class ReadData {
+        Arena dataArena; // the arena that holds data, or null before the first read
+        MemorySegment data = MemorySegment.NULL;
+        long size;
+        int[] lengths = new int[256];
+        int nReads;
+        long nBases;
+
+        void add( final FermiLiteAssembler.BasesAndQuals bAndQ ) {
+            final byte[] bases = bAndQ.getBases();
+            final byte[] quals = bAndQ.getQuals();
+            if ( bases.length != quals.length ) {
+                throw new IllegalArgumentException("Read " + (nReads + 1) + " has " + bases.length + " bases, but " +
+                        quals.length + " quals.");
+            }
+            if ( nReads == Integer.MAX_VALUE ) {
+                throw new IllegalArgumentException("Too many reads:  fermi-lite can't handle more than " +
+                        Integer.MAX_VALUE + ".");
+            }
+            ensureCapacity(Math.max(1L, size + 2L*bases.length));
+            MemorySegment.copy(bases, 0, data, JAVA_BYTE, size, bases.length);
+            MemorySegment.copy(quals, 0, data, JAVA_BYTE, size + bases.length, quals.length);
+            size += 2L*bases.length;
+            nBases += bases.length;
+            if ( nReads == lengths.length ) lengths = Arrays.copyOf(lengths, (int)Math.min(2L*nReads, Integer.MAX_VALUE));
+            lengths[nReads++] = bases.length;
+        }
+
+        private void ensureCapacity( final long capacity ) {
+            if ( capacity <= data.byteSize() ) return;
+            final long newCapacity = Math.max(capacity, Math.max(INITIAL_READ_DATA_SIZE, 2L*data.byteSize()));
+            final Arena newArena = Arena.ofConfined();
+            final MemorySegment newData;
+            try {
+                newData = newArena.allocate(newCapacity);
+            } catch ( final OutOfMemoryError oome ) {
+                newArena.close();
+                throw new IllegalStateException("Unable to allocate " + newCapacity + " bytes of read data. Out of memory?", oome);
+            }
+            MemorySegment.copy(data, 0, newData, 0, size);
+            FermiLiteMemoryBudget.allocated(newCapacity);
+            free();
+            dataArena = newArena;
+            data = newData;
+        }
+
+        void free() {
+            if ( dataArena == null ) return;
+            dataArena.close();
+            FermiLiteMemoryBudget.freed(data.byteSize());
+            dataArena = null;
+            data = MemorySegment.NULL;
+        }
+    }
+
+    // copies an array of fml_utg_t's onto the heap
+    private static FermiLiteAssembly readUnitigs( final int nUnitigs, final MemorySegment unitigsPtr ) {
+        final MemorySegment unitigs = unitigsPtr.reinterpret(nUnitigs*FML_UTG_T.byteSize());
+        final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>(nUnitigs);
+        for ( int idx = 0; idx != nUnitigs; ++idx ) {
+            final MemorySegment unitig = unitigs.asSlice(idx*FML_UTG_T.byteSize(), FML_UTG_T);
+            final int len = unitig.get(JAVA_INT, UTG_LEN);
+            final byte[] seq = unitig.get(ADDRESS, UTG_SEQ).reinterpret(len).toArray(JAVA_BYTE);
+            final byte[] cov = unitig.get(ADDRESS, UTG_COV).reinterpret(len).toArray(JAVA_BYTE);
+            contigs.add(new FermiLiteAssembly.Contig(seq, cov, unitig.get(JAVA_INT, UTG_NSR)));
+        }
+        for ( int idx = 0; idx != nUnitigs; ++idx ) {
+            final MemorySegment unitig = unitigs.asSlice(idx*FML_UTG_T.byteSize(), FML_UTG_T);
+            final int nConnections = unitig.get(JAVA_INT, UTG_N_OVLP) + unitig.get(JAVA_INT, UTG_N_OVLP + 4);
+            final MemorySegment ovlps = unitig.get(ADDRESS, UTG_OVLP).reinterpret(nConnections*FML_OVLP_T.byteSize());
+            final List<FermiLiteAssembly.Connection> connections = new ArrayList<>(nConnections);
+            for ( int connIdx = 0; connIdx != nConnections; ++connIdx ) {
+                final long ovlpOffset = connIdx*FML_OVLP_T.byteSize();
+                final int lenFrom = ovlps.get(JAVA_INT, ovlpOffset + OVLP_LEN_FROM);
+                final int idTo = ovlps.get(JAVA_INT, ovlpOffset + OVLP_ID_TO);
+                connections.add(new FermiLiteAssembly.Connection(contigs.get(idTo & Integer.MAX_VALUE),
+                        (lenFrom << 1) >> 1, // sign-extend the 31-bit field, as FermiLiteAssemblyView does
+                        lenFrom >= 0, // sign bit is set when the 3' end overlaps
+                        idTo < 0));
+            }
+            contigs.get(idx).setConnections(connections);
+        }
+        return new FermiLiteAssembly(contigs);
+    }
+
+    private static long offset( final StructLayout layout, final String field ) {
+        return layout.byteOffset(PathElement.groupElement(field));
+    }
+
+    private static VarHandle optField( final String field ) {
+        return FML_OPT_T.varHandle(PathElement.groupElement(field));
+    }
+
+    private static VarHandle magOptField( final String field ) {
+        return FML_OPT_T.varHandle(PathElement.groupElement("mag_opt"), PathElement.groupElement(field));
+    }
+}
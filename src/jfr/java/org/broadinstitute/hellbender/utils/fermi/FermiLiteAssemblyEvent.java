@@ -0,0 +1,77 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for each assembly (or batch of assemblies), carrying its FermiLiteAssemblyMetrics.
+ * This is in its own source set, so that the rest of the library still compiles on JDKs without jdk.jfr.
+ * FermiLiteAssemblyMetrics loads its Reporter reflectively, and only after checking that the runtime has a jdk.jfr
+ * package.
+ */
+@Name("org.broadinstitute.hellbender.utils.fermi.Assembly")
+@Label("Fermi-lite Assembly")
+@Category({"GATK", "Fermi-lite"})
+@Description("An assembly, or a batch of assemblies, by FermiLiteAssembler")
+@StackTrace(false)
+final class FermiLiteAssemblyEvent extends Event {
+    @Label("Assemblies") long nAssemblies;
+    @Label("Reads") long nReads;
+    @Label("Bases") long nBases;
+    @Label("Marshal Time") @Timespan long marshalNanos;
+    @Label("Native Time") @Timespan long nativeNanos;
+    @Label("Parse Time") @Timespan long parseNanos;
+    @Label("Error Correction Time") @Timespan long correctNanos;
+    @Label("Unique K-mer Filter Time") @Timespan long filterNanos;
+    @Label("Indexing Time") @Timespan long indexNanos;
+    @Label("Graph Building Time") @Timespan long graphNanos;
+    @Label("Graph Cleaning Time") @Timespan long cleanNanos;
+    @Label("Unitig Time") @Timespan long unitigNanos;
+    @Label("Result Marshal Time") @Timespan long resultNanos;
+    @Label("Contigs") long nContigs;
+    @Label("Edges") long nEdges;
+    @Label("Result Size") @DataAmount long resultBytes;
+    @Label("Decode Time") @Timespan long decodeNanos;
+
+    static Object start() {
+        final FermiLiteAssemblyEvent event = new FermiLiteAssemblyEvent();
+        event.begin();
+        return event;
+    }
+
+    static void finish( final Object eventObj, final FermiLiteAssemblyMetrics metrics ) {
+        final FermiLiteAssemblyEvent event = (FermiLiteAssemblyEvent)eventObj;
+        if ( !event.shouldCommit() ) return;
+        event.nAssemblies = metrics.getNAssemblies();
+        event.nReads = metrics.getNReads();
+        event.nBases = metrics.getNBases();
+        event.marshalNanos = metrics.getMarshalNanos();
+        event.nativeNanos = metrics.getNativeNanos();
+        event.parseNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.PARSE);
+        event.correctNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.CORRECT);
+        event.filterNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.FILTER);
+        event.indexNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.INDEX);
+        event.graphNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.GRAPH);
+        event.cleanNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.CLEAN);
+        event.unitigNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.UNITIGS);
+        event.resultNanos = metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.RESULT);
+        event.nContigs = metrics.getNContigs();
+        event.nEdges = metrics.getNEdges();
+        event.resultBytes = metrics.getResultBytes();
+        event.decodeNanos = metrics.getDecodeNanos();
+        event.commit();
+    }
+
+    static final class Reporter implements FermiLiteAssemblyMetrics.EventReporter {
+        @Override public Object start() { return FermiLiteAssemblyEvent.start(); }
+        @Override public void finish( final Object event, final FermiLiteAssemblyMetrics metrics ) {
+            FermiLiteAssemblyEvent.finish(event, metrics);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the hot paths of an assembly:  marshalling the reads, the native assembly,
+ * decoding the native result, and a couple of things people do with the assembly afterwards.
+ * The reads are sampled uniformly from a random genome, like FermiLiteAssemblerTest.genReads does,
+ * with substitution errors sprinkled in at the specified rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FermiLiteAssemblerBenchmark {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+
+    @Param({"2000", "20000"})
+    public int genomeLength;
+
+    @Param({"30"})
+    public int coverage;
+
+    @Param({"151"})
+    public int readLength;
+
+    @Param({"0", "0.01"})
+    public double errorRate;
+
+    @Param({"1"})
+    public int nThreads;
+
+    private FermiLiteAssembler assembler;
+    private List<FermiLiteAssembler.BasesAndQuals> reads;
+    private ByteBuffer readData;
+    private ByteBuffer assemblyData;
+    private FermiLiteAssembly assembly;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        reads = genReads(genomeLength, coverage, readLength, errorRate);
+        assembler = new FermiLiteAssembler();
+        assembler.setNThreads(nThreads);
+        readData = assembler.makeReadData(reads, bAndQ -> bAndQ);
+        assemblyData = FermiLiteAssembler.createAssemblyData(assembler.getOpts(), readData, null);
+        if ( assemblyData == null ) throw new IllegalStateException("Unable to create assembly. Out of memory?");
+        assembly = FermiLiteAssembler.interpretAssemblyData(assemblyData);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FermiLiteAssembler.destroyByteBuffer(assemblyData);
+        assembler.close();
+    }
+
+    @Benchmark
+    public ByteBuffer makeReadData() {
+        return assembler.makeReadData(reads, bAndQ -> bAndQ);
+    }
+
+    @Benchmark
+    public int createAssemblyData() {
+        final ByteBuffer result = FermiLiteAssembler.createAssemblyData(assembler.getOpts(), readData, null);
+        if ( result == null ) throw new IllegalStateException("Unable to create assembly. Out of memory?");
+        final int nContigs = result.order(ByteOrder.nativeOrder()).getInt(0);
+        FermiLiteAssembler.destroyByteBuffer(result);
+        return nContigs;
+    }
+
+    @Benchmark
+    public FermiLiteAssembly createAssembly() {
+        return assembler.createAssembly(reads);
+    }
+
+    @Benchmark
+    public FermiLiteAssembly interpretAssemblyData() {
+        return FermiLiteAssembler.interpretAssemblyData(assemblyData);
+    }
+
+    @Benchmark
+    public int computeN50() {
+        return assembly.computeN50();
+    }
+
+    @Benchmark
+    public void writeGFA() throws IOException {
+        assembly.writeGFA(new NullWriter());
+    }
+
+    @Benchmark
+    public void writeGFABytes() throws IOException {
+        final FermiLiteAssemblyWriter writer = new FermiLiteAssemblyWriter(new NullChannel(), false);
+        writer.writeGFA(assembly);
+        writer.flush();
+    }
+
+    static List<FermiLiteAssembler.BasesAndQuals> genReads( final int genomeLength, final int coverage,
+                                                           final int readLength, final double errorRate ) {
+        final Random random = new Random(0);
+        final byte[] genome = new byte[genomeLength];
+        for ( int idx = 0; idx != genomeLength; ++idx ) {
+            genome[idx] = BASES[random.nextInt(BASES.length)];
+        }
+        final int nReads = coverage * genomeLength / readLength + 1;
+        final List<FermiLiteAssembler.BasesAndQuals> reads = new ArrayList<>(nReads + 4);
+        for ( int idx = 0; idx != nReads; ++idx ) {
+            reads.add(makeRead(genome, random.nextInt(genomeLength - readLength), readLength, errorRate, random));
+        }
+        // make sure there's adequate coverage at the ends
+        reads.add(makeRead(genome, 0, readLength, errorRate, random));
+        reads.add(makeRead(genome, 1, readLength, errorRate, random));
+        reads.add(makeRead(genome, genomeLength - readLength, readLength, errorRate, random));
+        reads.add(makeRead(genome, genomeLength - readLength - 1, readLength, errorRate, random));
+        return reads;
+    }
+
+    private static FermiLiteAssembler.BasesAndQuals makeRead( final byte[] genome, final int start, final int readLength,
+                                                              final double errorRate, final Random random ) {
+        final byte[] bases = Arrays.copyOfRange(genome, start, start + readLength);
+        for ( int idx = 0; idx != readLength; ++idx ) {
+            if ( random.nextDouble() < errorRate ) {
+                bases[idx] = BASES[(Arrays.binarySearch(BASES, bases[idx]) + 1 + random.nextInt(3)) % BASES.length];
+            }
+        }
+        final byte[] quals = new byte[readLength];
+        Arrays.fill(quals, (byte)30);
+        return new FermiLiteAssembler.BasesAndQuals() {
+            @Override public byte[] getBases() { return bases; }
+            @Override public byte[] getQuals() { return quals; }
+        };
+    }
+
+    private static final class NullWriter extends Writer {
+        @Override public void write( final char[] cbuf, final int off, final int len ) {}
+        @Override public void write( final String str ) {}
+        @Override public void flush() {}
+        @Override public void close() {}
+    }
+
+    private static final class NullChannel implements WritableByteChannel {
+        @Override public int write( final ByteBuffer src ) {
+            final int len = src.remaining();
+            src.position(src.limit());
+            return len;
+        }
+        @Override public boolean isOpen() { return true; }
+        @Override public void close() {}
+    }
+}
@@ -1,6 +1,9 @@
 #include <jni.h>
+#include <pthread.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <string.h>
+#include <time.h>
 #include "fermi-lite/fml.h"
 #include "fermi-lite/fml_commit.h"
 
@@ -12,51 +15,244 @@ Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createDefaultO
     return (*env)->NewDirectByteBuffer(env,pOpts,sizeof(fml_opt_t));
 }
 
-static void freeReads( bseq1_t* pReads, bseq1_t* pEnd ) {
+// indices into the array of per-stage timings (in nanoseconds) that the assembly functions can report.
+// this must agree with FermiLiteAssemblyMetrics.Stage.
+enum { STAGE_PARSE, STAGE_CORRECT, STAGE_FILTER, STAGE_INDEX, STAGE_GRAPH, STAGE_CLEAN, STAGE_UNITIGS, STAGE_RESULT,
+       N_STAGES };
+
+static int64_t nanoTime( void ) {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec*1000000000 + ts.tv_nsec;
+}
+
+// adds the time since startTime to the timing for a stage (if we're keeping track), and returns the current time.
+static int64_t lap( int64_t* pNanos, int stage, int64_t startTime ) {
+    int64_t now = nanoTime();
+    if ( pNanos ) pNanos[stage] += now - startTime;
+    return now;
+}
+
+// a set of reads ready for assembly.
+// fermi-lite frees the bseq1_t array and each read's seq, so those have to be separately malloc'd,
+//  but the quals are only needed through error correction.  the quals of each chunk of reads that's added to the set
+//  live in a single allocation (a "qual pool") that we free.
+typedef struct {
+    int32_t nSeqs;
+    int32_t capacity;     // number of bseq1_t's allocated
+    bseq1_t* pReads;
+    int32_t nQualPools;
+    char** ppQualPools;
+} readset_t;
+
+static void freeQuals( readset_t* pSet ) {
+    bseq1_t* pEnd = pSet->pReads ? pSet->pReads + pSet->nSeqs : 0;
     bseq1_t* pRead;
-    for ( pRead = pReads; pRead != pEnd; ++pRead ) {
-        free(pRead->seq);
-        free(pRead->qual);
+    for ( pRead = pSet->pReads; pRead != pEnd; ++pRead ) {
+        pRead->qual = 0;
+    }
+    int32_t idx;
+    for ( idx = 0; idx != pSet->nQualPools; ++idx ) {
+        free(pSet->ppQualPools[idx]);
     }
-    free(pReads);
+    free(pSet->ppQualPools);
+    pSet->nQualPools = 0;
+    pSet->ppQualPools = 0;
 }
 
-JNIEXPORT jobject JNICALL
-Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createAssemblyData( JNIEnv* env, jclass cls, jobject optsBuf, jobject readBuf ) {
+static void freeReads( readset_t* pSet ) {
+    freeQuals(pSet);
+    if ( pSet->pReads ) {
+        bseq1_t* pEnd = pSet->pReads + pSet->nSeqs;
+        bseq1_t* pRead;
+        for ( pRead = pSet->pReads; pRead != pEnd; ++pRead ) {
+            free(pRead->seq);
+        }
+        free(pSet->pReads);
+    }
+    pSet->nSeqs = 0;
+    pSet->capacity = 0;
+    pSet->pReads = 0;
+}
 
-    // build input data structure (reads)
-    int32_t* pReadsBuf = (*env)->GetDirectBufferAddress(env, readBuf);
-    if ( !pReadsBuf ) return 0;
+// builds a read set from nSeqs reads whose data (the bases and then the quals of each read, not null terminated)
+//  follow one another in pReadData.  pLengths has each read's length:  a read without quals has the high bit of its
+//  length set, and just its bases in the read data.  its qual is null.
+// returns 0 if we run out of memory.
+static int makeReadSet( int32_t nSeqs, const int32_t* pLengths, const char* pReadData, readset_t* pSet ) {
+    const int32_t* pLengthsEnd = pLengths + nSeqs;
+    size_t totLen = 0;
+    const int32_t* pLength;
+    for ( pLength = pLengths; pLength != pLengthsEnd; ++pLength ) {
+        if ( *pLength >= 0 ) totLen += (size_t)*pLength + 1;
+    }
 
-    int32_t nSeqs = *pReadsBuf++;
     // get cleared memory, so that if we have to call freeReads prematurely (before we allocate memory for each read)
     //  then nothing bad will happen because free(NULL) is A-OK.
-    bseq1_t* pReads = calloc(nSeqs, sizeof(bseq1_t));
-    if ( !pReads ) return 0;
+    pSet->nSeqs = nSeqs;
+    pSet->capacity = nSeqs ? nSeqs : 1;
+    pSet->pReads = calloc(pSet->capacity, sizeof(bseq1_t));
+    pSet->nQualPools = 0;
+    pSet->ppQualPools = malloc(sizeof(char*));
+    char* pQual = malloc(totLen ? totLen : 1);
+    if ( pSet->ppQualPools && pQual ) pSet->ppQualPools[pSet->nQualPools++] = pQual;
+    else free(pQual);
+    if ( !pSet->pReads || !pSet->nQualPools ) { freeReads(pSet); return 0; }
 
-    bseq1_t* pReadsEnd = pReads + nSeqs;
-    bseq1_t* pRead;
-    char* readData = (char*)pReadsBuf;
-    for ( pRead = pReads; pRead != pReadsEnd; ++pRead ) {
-        int skip = strlen(readData);
-        pRead->l_seq = skip++;
-        pRead->seq = strdup(readData);
-        if ( !pRead->seq ) { freeReads(pReads,pReadsEnd); return 0; }
-        readData += skip;
-        pRead->qual = strdup(readData);
-        if ( !pRead->qual ) { freeReads(pReads,pReadsEnd); return 0; }
-        readData += skip;
+    bseq1_t* pRead = pSet->pReads;
+    for ( pLength = pLengths; pLength != pLengthsEnd; ++pLength, ++pRead ) {
+        int32_t len = *pLength & INT32_MAX;
+        pRead->l_seq = len;
+        pRead->seq = malloc(len + 1);
+        if ( !pRead->seq ) { freeReads(pSet); return 0; }
+        memcpy(pRead->seq, pReadData, len);
+        pRead->seq[len] = 0;
+        pReadData += len;
+        if ( *pLength < 0 ) continue; // no quals
+        pRead->qual = pQual;
+        memcpy(pQual, pReadData, len);
+        pQual[len] = 0;
+        pQual += len + 1;
+        pReadData += len;
     }
+    return 1;
+}
 
-    // assemble the reads
-    int32_t nUnitigs;
-    fml_opt_t* pOpts = (*env)->GetDirectBufferAddress(env, optsBuf);
-    if ( !pOpts ) { freeReads(pReads,pReadsEnd); return 0; }
+// parses one read set out of the flat Java buffer, and advances *ppReadData past it.  a read set comprises:
+//  the number of reads (4-byte int)
+//  the offset from the start of the read set to the table of read lengths (4-byte int)
+//  the read data (see makeReadSet), padded to a multiple of 4 bytes
+//  the table of read lengths (a 4-byte int for each read)
+// returns 0 if we run out of memory.
+static int parseReads( char** ppReadData, readset_t* pSet ) {
+    char* pSetStart = *ppReadData;
+    int32_t* pHeader = (int32_t*)pSetStart;
+    int32_t nSeqs = pHeader[0];
+    int32_t* pLengths = (int32_t*)(pSetStart + pHeader[1]);
+    *ppReadData = (char*)(pLengths + nSeqs);
+    return makeReadSet(nSeqs, pLengths, (char*)(pHeader + 2), pSet);
+}
 
-    fml_utg_t* pUnitigs = fml_assemble(pOpts, nSeqs, pReads, &nUnitigs); // frees pReads, seqs and quals as side effect
-    fml_utg_t* pUnitigsEnd = pUnitigs + nUnitigs;
+// makes a copy of a read set's seqs (but not its quals) that fermi-lite can consume.
+// returns 0 if we run out of memory.
+static int copyReads( const readset_t* pSet, readset_t* pCopy ) {
+    pCopy->nSeqs = pSet->nSeqs;
+    pCopy->capacity = pSet->nSeqs ? pSet->nSeqs : 1;
+    pCopy->pReads = calloc(pCopy->capacity, sizeof(bseq1_t));
+    pCopy->nQualPools = 0;
+    pCopy->ppQualPools = 0;
+    if ( !pCopy->pReads ) return 0;
+    const bseq1_t* pRead = pSet->pReads;
+    bseq1_t* pReadCopy = pCopy->pReads;
+    bseq1_t* pEnd = pReadCopy + pSet->nSeqs;
+    for ( ; pReadCopy != pEnd; ++pRead, ++pReadCopy ) {
+        pReadCopy->l_seq = pRead->l_seq;
+        pReadCopy->seq = malloc(pRead->l_seq + 1);
+        if ( !pReadCopy->seq ) { freeReads(pCopy); return 0; }
+        memcpy(pReadCopy->seq, pRead->seq, pRead->l_seq + 1);
+    }
+    return 1;
+}
+
+// moves the reads of pChunk onto the end of pSet.  pChunk is left empty.
+// returns 0 (and leaves both sets as they were) if we run out of memory, or if there would be more than INT32_MAX reads
+//  (fermi-lite counts reads with an int).
+static int appendReads( readset_t* pSet, readset_t* pChunk ) {
+    int64_t nSeqs = (int64_t)pSet->nSeqs + pChunk->nSeqs;
+    int64_t nQualPools = (int64_t)pSet->nQualPools + pChunk->nQualPools;
+    if ( nSeqs > INT32_MAX || nQualPools > INT32_MAX ) return 0;
+    if ( nSeqs > pSet->capacity ) {
+        int64_t capacity = 2*(int64_t)pSet->capacity;
+        if ( capacity < nSeqs ) capacity = nSeqs;
+        if ( capacity > INT32_MAX ) capacity = INT32_MAX;
+        bseq1_t* pReads = realloc(pSet->pReads, (size_t)capacity*sizeof(bseq1_t));
+        if ( !pReads ) return 0;
+        pSet->pReads = pReads;
+        pSet->capacity = (int32_t)capacity;
+    }
+    char** ppQualPools = realloc(pSet->ppQualPools, (size_t)nQualPools*sizeof(char*));
+    if ( !ppQualPools ) return 0;
+    pSet->ppQualPools = ppQualPools;
+    memcpy(pSet->pReads + pSet->nSeqs, pChunk->pReads, pChunk->nSeqs*sizeof(bseq1_t));
+    memcpy(pSet->ppQualPools + pSet->nQualPools, pChunk->ppQualPools, pChunk->nQualPools*sizeof(char*));
+    pSet->nSeqs = (int32_t)nSeqs;
+    pSet->nQualPools = (int32_t)nQualPools;
+    free(pChunk->pReads);
+    free(pChunk->ppQualPools);
+    memset(pChunk, 0, sizeof(readset_t));
+    return 1;
+}
+
+// the stages of an assembly, as fml_assemble does them.
+// pOpts must have been adjusted by fml_opt_adjust for the read set.
+
+static void correctReads( const fml_opt_t* pOpts, readset_t* pSet ) {
+    if ( pOpts->ec_k >= 0 ) fml_correct(pOpts, pSet->nSeqs, pSet->pReads);
+}
+
+static float filterUniqueReads( const fml_opt_t* pOpts, readset_t* pSet ) {
+    return fml_fltuniq(pOpts, pSet->nSeqs, pSet->pReads);
+}
+
+// builds an FM-index, consuming the read set.
+// the quals aren't needed after error correction, so we free them ourselves, and fermi-lite frees the rest.
+static struct rld_t* indexReads( const fml_opt_t* pOpts, readset_t* pSet ) {
+    freeQuals(pSet);
+    int32_t nSeqs = pSet->nSeqs;
+    bseq1_t* pReads = pSet->pReads;
+    pSet->nSeqs = 0;
+    pSet->capacity = 0;
+    pSet->pReads = 0;
+    return fml_seq2fmi(pOpts, nSeqs, pReads); // frees pReads and seqs
+}
+
+#define MAG_MIN_NSR_COEF .1
+
+// cleans the graph, with the minimum read support raised according to the k-mer coverage found by filterUniqueReads.
+static void cleanGraph( const fml_opt_t* pOpts, struct mag_t* pGraph, float kcov ) {
+    fml_opt_t opt = *pOpts;
+    if ( opt.n_threads < 1 ) opt.n_threads = 1;
+    opt.mag_opt.min_ensr = opt.mag_opt.min_ensr > kcov * MAG_MIN_NSR_COEF ? opt.mag_opt.min_ensr : (int)(kcov * MAG_MIN_NSR_COEF + .499);
+    opt.mag_opt.min_ensr = opt.mag_opt.min_ensr < pOpts->max_cnt ? opt.mag_opt.min_ensr : pOpts->max_cnt;
+    opt.mag_opt.min_ensr = opt.mag_opt.min_ensr > pOpts->min_cnt ? opt.mag_opt.min_ensr : pOpts->min_cnt;
+    opt.mag_opt.min_insr = opt.mag_opt.min_ensr - 1;
+    fml_mag_clean(&opt, pGraph);
+}
+
+// does what fml_assemble does, except that we free the quals ourselves as soon as we're through with them.
+// the read set is consumed.  if pNanos isn't null, the time taken by each stage is added to it.
+static fml_utg_t* assembleReads( const fml_opt_t* pOpts, readset_t* pSet, int32_t* pNUnitigs, int64_t* pNanos ) {
+    if ( !pSet->nSeqs ) { freeReads(pSet); *pNUnitigs = 0; return 0; }
 
-    // marshal the output data (unitigs and connections)
+    fml_opt_t opt = *pOpts;
+    int64_t time = nanoTime();
+    fml_opt_adjust(&opt, pSet->nSeqs, pSet->pReads);
+    correctReads(&opt, pSet);
+    time = lap(pNanos, STAGE_CORRECT, time);
+    float kcov = filterUniqueReads(&opt, pSet);
+    time = lap(pNanos, STAGE_FILTER, time);
+    struct rld_t* pFMI = indexReads(&opt, pSet);
+    time = lap(pNanos, STAGE_INDEX, time);
+    struct mag_t* pGraph = fml_fmi2mag(&opt, pFMI); // frees pFMI
+    time = lap(pNanos, STAGE_GRAPH, time);
+    cleanGraph(&opt, pGraph, kcov);
+    time = lap(pNanos, STAGE_CLEAN, time);
+    fml_utg_t* pUnitigs = fml_mag2utg(pGraph, pNUnitigs); // frees pGraph
+    lap(pNanos, STAGE_UNITIGS, time);
+    return pUnitigs;
+}
+
+// returns the address of the (optional) buffer for reporting stage timings, cleared, or null if there isn't one.
+static int64_t* getStageTimes( JNIEnv* env, jobject statsBuf ) {
+    if ( !statsBuf ) return 0;
+    int64_t* pNanos = (*env)->GetDirectBufferAddress(env, statsBuf);
+    if ( pNanos ) memset(pNanos, 0, N_STAGES*sizeof(int64_t));
+    return pNanos;
+}
+
+// size of the marshalled form of a set of unitigs (see writeUnitigs).  *pArrSize gets the offset to the byte pool.
+static size_t sizeUnitigs( int32_t nUnitigs, fml_utg_t* pUnitigs, size_t* pArrSize ) {
+    fml_utg_t* pUnitigsEnd = pUnitigs + nUnitigs;
     size_t arrSize = 2*sizeof(int32_t); // for the array length and pool offset
     size_t totSize = 0;
     fml_utg_t* pUnitig;
@@ -66,10 +262,14 @@ Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createAssembly
         // and each of the connections requires an fml_ovlp_t to describe the edge
         arrSize += 3*sizeof(int32_t) + (pUnitig->n_ovlp[0]+pUnitig->n_ovlp[1])*sizeof(fml_ovlp_t);
     }
-    totSize += arrSize;
-    int32_t* pAsmBuf = malloc(totSize);
-    if ( !pAsmBuf ) return 0;
+    *pArrSize = arrSize;
+    return totSize + arrSize;
+}
 
+// marshal the output data (unitigs and connections) into a buffer of the size computed by sizeUnitigs
+static void writeUnitigs( int32_t nUnitigs, fml_utg_t* pUnitigs, size_t arrSize, int32_t* pAsmBuf ) {
+    fml_utg_t* pUnitigsEnd = pUnitigs + nUnitigs;
+    fml_utg_t* pUnitig;
     int32_t* pTig = pAsmBuf;
     *pTig++ = nUnitigs; // number of unitigs
     *pTig++ = arrSize;  // offset to byte pool
@@ -92,6 +292,16 @@ Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createAssembly
         memcpy(pBytes, pUnitig->cov, len);
         pBytes += len;
     }
+}
+
+// marshals the unitigs into a new direct ByteBuffer for return to Java.  the unitigs are freed.
+static jobject unitigsToByteBuffer( JNIEnv* env, int32_t nUnitigs, fml_utg_t* pUnitigs, int64_t* pNanos ) {
+    int64_t time = nanoTime();
+    size_t arrSize;
+    size_t totSize = sizeUnitigs(nUnitigs, pUnitigs, &arrSize);
+    int32_t* pAsmBuf = malloc(totSize);
+    if ( !pAsmBuf ) { fml_utg_destroy(nUnitigs, pUnitigs); return 0; }
+    writeUnitigs(nUnitigs, pUnitigs, arrSize, pAsmBuf);
 
     // clean up assembly data
     fml_utg_destroy(nUnitigs, pUnitigs);
@@ -99,6 +309,327 @@ Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createAssembly
     // return the output to Java
     jobject result = (*env)->NewDirectByteBuffer(env, pAsmBuf, totSize);
     if ( !result ) free(pAsmBuf);
+    lap(pNanos, STAGE_RESULT, time);
+    return result;
+}
+
+// statsBuf may be null.  if it isn't, it receives the time taken by each stage of the assembly (N_STAGES 8-byte ints).
+JNIEXPORT jobject JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createAssemblyData( JNIEnv* env, jclass cls, jobject optsBuf, jobject readBuf, jobject statsBuf ) {
+    int64_t* pNanos = getStageTimes(env, statsBuf);
+    int64_t time = nanoTime();
+
+    // build input data structure (reads)
+    char* pReadsBuf = (*env)->GetDirectBufferAddress(env, readBuf);
+    if ( !pReadsBuf ) return 0;
+
+    readset_t reads;
+    if ( !parseReads(&pReadsBuf, &reads) ) return 0;
+    lap(pNanos, STAGE_PARSE, time);
+
+    // assemble the reads
+    int32_t nUnitigs;
+    fml_opt_t* pOpts = (*env)->GetDirectBufferAddress(env, optsBuf);
+    if ( !pOpts ) { freeReads(&reads); return 0; }
+
+    fml_utg_t* pUnitigs = assembleReads(pOpts, &reads, &nUnitigs, pNanos); // frees the reads as a side effect
+
+    return unitigsToByteBuffer(env, nUnitigs, pUnitigs, pNanos);
+}
+
+// an entry point for FermiLiteFFMBackend, which calls it directly rather than through JNI.
+// assembles nSeqs reads, laid out as for makeReadSet, and returns fermi-lite's unitigs (for fml_utg_destroy).
+// *pNUnitigs is set to -1 if we run out of memory.  pNanos may be null.  if it isn't, it receives the time taken by
+//  each stage of the assembly (N_STAGES 8-byte ints).
+fml_utg_t* fmljni_assembleReadData( const fml_opt_t* pOpts, int32_t nSeqs, const int32_t* pLengths,
+                                    const char* pReadData, int32_t* pNUnitigs, int64_t* pNanos ) {
+    if ( pNanos ) memset(pNanos, 0, N_STAGES*sizeof(int64_t));
+    int64_t time = nanoTime();
+    readset_t reads;
+    if ( !makeReadSet(nSeqs, pLengths, pReadData, &reads) ) { *pNUnitigs = -1; return 0; }
+    lap(pNanos, STAGE_PARSE, time);
+    return assembleReads(pOpts, &reads, pNUnitigs, pNanos); // frees the reads as a side effect
+}
+
+// shared state for the worker threads that assemble a batch of read sets
+typedef struct {
+    fml_opt_t opts;          // each worker runs a single-threaded assembly
+    int32_t nSets;
+    readset_t* pSets;        // reads for each set (consumed by assembleReads)
+    int32_t* pNUnitigs;      // number of unitigs assembled from each set
+    fml_utg_t** ppUnitigs;   // unitigs assembled from each set
+    int64_t* pNanos;         // stage timings for each set (N_STAGES for each), or null if we're not keeping track
+    int32_t nextSet;         // index of the next set to assemble
+    pthread_mutex_t mutex;   // guards nextSet
+} batch_t;
+
+static void* assembleBatch( void* pArg ) {
+    batch_t* pBatch = pArg;
+    while ( 1 ) {
+        pthread_mutex_lock(&pBatch->mutex);
+        int32_t idx = pBatch->nextSet++;
+        pthread_mutex_unlock(&pBatch->mutex);
+        if ( idx >= pBatch->nSets ) break;
+        int64_t* pNanos = pBatch->pNanos ? pBatch->pNanos + idx*N_STAGES : 0;
+        pBatch->ppUnitigs[idx] = assembleReads(&pBatch->opts, &pBatch->pSets[idx], &pBatch->pNUnitigs[idx], pNanos);
+    }
+    return 0;
+}
+
+static void freeBatch( batch_t* pBatch ) {
+    int32_t idx;
+    int32_t nSets = pBatch->pSets && pBatch->pNUnitigs && pBatch->ppUnitigs ? pBatch->nSets : 0;
+    for ( idx = 0; idx != nSets; ++idx ) {
+        freeReads(&pBatch->pSets[idx]);
+        if ( pBatch->ppUnitigs[idx] ) fml_utg_destroy(pBatch->pNUnitigs[idx], pBatch->ppUnitigs[idx]);
+    }
+    free(pBatch->pSets);
+    free(pBatch->pNUnitigs);
+    free(pBatch->ppUnitigs);
+    free(pBatch->pNanos);
+}
+
+#define BATCH_ALIGN 8
+
+JNIEXPORT jobject JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createBatchAssemblyData( JNIEnv* env, jclass cls, jobject optsBuf, jobject readBuf, jint nWorkers, jobject statsBuf ) {
+    int64_t* pStageTimes = getStageTimes(env, statsBuf);
+    int64_t time = nanoTime();
+    char* pReadsBuf = (*env)->GetDirectBufferAddress(env, readBuf);
+    fml_opt_t* pOpts = (*env)->GetDirectBufferAddress(env, optsBuf);
+    if ( !pReadsBuf || !pOpts ) return 0;
+
+    batch_t batch;
+    batch.opts = *pOpts;
+    batch.opts.n_threads = 1;
+    memcpy(&batch.nSets, pReadsBuf, sizeof(int32_t));
+    pReadsBuf += sizeof(int32_t);
+    int32_t nAlloc = batch.nSets ? batch.nSets : 1;
+    batch.pSets = calloc(nAlloc, sizeof(readset_t));
+    batch.pNUnitigs = calloc(nAlloc, sizeof(int32_t));
+    batch.ppUnitigs = calloc(nAlloc, sizeof(fml_utg_t*));
+    batch.pNanos = pStageTimes ? calloc(nAlloc*N_STAGES, sizeof(int64_t)) : 0;
+    batch.nextSet = 0;
+    if ( !batch.pSets || !batch.pNUnitigs || !batch.ppUnitigs || (pStageTimes && !batch.pNanos) ) {
+        freeBatch(&batch);
+        return 0;
+    }
+
+    // build input data structures (one array of reads for each set)
+    int32_t idx;
+    for ( idx = 0; idx != batch.nSets; ++idx ) {
+        if ( !parseReads(&pReadsBuf, &batch.pSets[idx]) ) { freeBatch(&batch); return 0; }
+    }
+    lap(pStageTimes, STAGE_PARSE, time);
+
+    // assemble the sets on a pool of worker threads (this one included)
+    if ( nWorkers > batch.nSets ) nWorkers = batch.nSets;
+    if ( nWorkers < 1 ) nWorkers = 1;
+    pthread_mutex_init(&batch.mutex, 0);
+    pthread_t* pThreads = calloc(nWorkers, sizeof(pthread_t));
+    int nThreads = 0;
+    if ( pThreads ) {
+        while ( nThreads < nWorkers - 1 && !pthread_create(&pThreads[nThreads], 0, assembleBatch, &batch) ) {
+            nThreads += 1;
+        }
+    }
+    assembleBatch(&batch);
+    while ( nThreads-- > 0 ) {
+        pthread_join(pThreads[nThreads], 0);
+    }
+    free(pThreads);
+    pthread_mutex_destroy(&batch.mutex);
+
+    // report the stage timings summed over the sets (so they're in thread-nanoseconds, not elapsed time)
+    if ( pStageTimes ) {
+        for ( idx = 0; idx != batch.nSets*N_STAGES; ++idx ) {
+            pStageTimes[idx % N_STAGES] += batch.pNanos[idx];
+        }
+    }
+    time = nanoTime();
+
+    // marshal the output:  the number of assemblies, padding, the byte offset of each assembly,
+    //  and then each assembly in the same format that createAssemblyData uses (aligned to BATCH_ALIGN bytes)
+    size_t totSize = (2 + batch.nSets)*sizeof(int32_t);
+    totSize = (totSize + BATCH_ALIGN - 1) & ~(size_t)(BATCH_ALIGN - 1);
+    for ( idx = 0; idx != batch.nSets; ++idx ) {
+        size_t arrSize;
+        totSize += sizeUnitigs(batch.pNUnitigs[idx], batch.ppUnitigs[idx], &arrSize);
+        totSize = (totSize + BATCH_ALIGN - 1) & ~(size_t)(BATCH_ALIGN - 1);
+    }
+    if ( totSize > INT32_MAX ) { // a direct ByteBuffer can't hold it.  that's the caller's problem, not a lack of memory.
+        freeBatch(&batch);
+        (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/IllegalArgumentException"),
+                         "The assemblies in this batch are too big to return in a 2GB buffer:  use smaller batches.");
+        return 0;
+    }
+    char* pAsmBuf = malloc(totSize);
+    if ( !pAsmBuf ) { freeBatch(&batch); return 0; }
+
+    int32_t* pHeader = (int32_t*)pAsmBuf;
+    *pHeader++ = batch.nSets;
+    *pHeader++ = 0;
+    size_t offset = (2 + batch.nSets)*sizeof(int32_t);
+    offset = (offset + BATCH_ALIGN - 1) & ~(size_t)(BATCH_ALIGN - 1);
+    for ( idx = 0; idx != batch.nSets; ++idx ) {
+        *pHeader++ = offset;
+        size_t arrSize;
+        size_t size = sizeUnitigs(batch.pNUnitigs[idx], batch.ppUnitigs[idx], &arrSize);
+        writeUnitigs(batch.pNUnitigs[idx], batch.ppUnitigs[idx], arrSize, (int32_t*)(pAsmBuf + offset));
+        offset = (offset + size + BATCH_ALIGN - 1) & ~(size_t)(BATCH_ALIGN - 1);
+    }
+
+    // clean up assembly data
+    freeBatch(&batch);
+
+    // return the output to Java
+    jobject result = (*env)->NewDirectByteBuffer(env, pAsmBuf, totSize);
+    if ( !result ) free(pAsmBuf);
+    lap(pStageTimes, STAGE_RESULT, time);
+    return result;
+}
+
+// the staged API:  intermediate results are returned to Java as opaque handles
+
+// the staged API adjusts the options for the reads just once, when they're loaded, as assembleReads does.
+// Java keeps the "stage options" for the reads:  a copy of the options as they were when the reads were loaded,
+//  followed by a copy as adjusted.  each later stage uses the adjusted options, except for any option that has been
+//  changed since the reads were loaded, which is used as set.  every field of fml_opt_t is a 4-byte int or float.
+typedef char fml_opt_is_4_byte_fields[sizeof(fml_opt_t) % sizeof(int32_t) == 0 ? 1 : -1];
+
+static void getStageOpts( JNIEnv* env, jobject optsBuf, jobject stageOptsBuf, fml_opt_t* pOpts ) {
+    const char* pCur = (*env)->GetDirectBufferAddress(env, optsBuf);
+    const char* pLoaded = (*env)->GetDirectBufferAddress(env, stageOptsBuf);
+    const char* pAdjusted = pLoaded + sizeof(fml_opt_t);
+    char* pResult = (char*)pOpts;
+    size_t offset;
+    for ( offset = 0; offset != sizeof(fml_opt_t); offset += sizeof(int32_t) ) {
+        const char* pSrc = memcmp(pCur + offset, pLoaded + offset, sizeof(int32_t)) ? pCur : pAdjusted;
+        memcpy(pResult + offset, pSrc + offset, sizeof(int32_t));
+    }
+    if ( pOpts->n_threads < 1 ) pOpts->n_threads = 1;
+}
+
+// stageOptsBuf receives the stage options (2 fml_opt_t's) for the reads
+JNIEXPORT jlong JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_loadReads( JNIEnv* env, jclass cls, jobject optsBuf, jobject readBuf, jobject stageOptsBuf ) {
+    char* pReadsBuf = (*env)->GetDirectBufferAddress(env, readBuf);
+    fml_opt_t* pOpts = (*env)->GetDirectBufferAddress(env, optsBuf);
+    fml_opt_t* pStageOpts = (*env)->GetDirectBufferAddress(env, stageOptsBuf);
+    if ( !pReadsBuf || !pOpts || !pStageOpts ) return 0;
+    readset_t* pSet = malloc(sizeof(readset_t));
+    if ( !pSet ) return 0;
+    if ( !parseReads(&pReadsBuf, pSet) ) { free(pSet); return 0; }
+    pStageOpts[0] = *pOpts;
+    pStageOpts[1] = *pOpts;
+    if ( pSet->nSeqs ) fml_opt_adjust(&pStageOpts[1], pSet->nSeqs, pSet->pReads);
+    return (jlong)(intptr_t)pSet;
+}
+
+// an empty read set, to which reads can be appended in chunks
+JNIEXPORT jlong JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createReads( JNIEnv* env, jclass cls ) {
+    return (jlong)(intptr_t)calloc(1, sizeof(readset_t));
+}
+
+// returns false if we run out of memory, in which case the read set is unchanged
+JNIEXPORT jboolean JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_appendReads( JNIEnv* env, jclass cls, jlong readsHandle, jobject readBuf ) {
+    char* pReadsBuf = (*env)->GetDirectBufferAddress(env, readBuf);
+    if ( !pReadsBuf ) return JNI_FALSE;
+    readset_t chunk;
+    if ( !parseReads(&pReadsBuf, &chunk) ) return JNI_FALSE;
+    if ( !appendReads((readset_t*)(intptr_t)readsHandle, &chunk) ) { freeReads(&chunk); return JNI_FALSE; }
+    return JNI_TRUE;
+}
+
+// assembles the reads in one go, like createAssemblyData.  the reads are consumed, leaving the read set empty.
+JNIEXPORT jobject JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_assembleReads( JNIEnv* env, jclass cls, jobject optsBuf, jlong readsHandle, jobject statsBuf ) {
+    int64_t* pNanos = getStageTimes(env, statsBuf);
+    fml_opt_t* pOpts = (*env)->GetDirectBufferAddress(env, optsBuf);
+    if ( !pOpts ) return 0;
+    int32_t nUnitigs;
+    fml_utg_t* pUnitigs = assembleReads(pOpts, (readset_t*)(intptr_t)readsHandle, &nUnitigs, pNanos);
+    return unitigsToByteBuffer(env, nUnitigs, pUnitigs, pNanos);
+}
+
+JNIEXPORT void JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_correctReads( JNIEnv* env, jclass cls, jobject optsBuf, jobject stageOptsBuf, jlong readsHandle ) {
+    fml_opt_t opt;
+    getStageOpts(env, optsBuf, stageOptsBuf, &opt);
+    correctReads(&opt, (readset_t*)(intptr_t)readsHandle);
+}
+
+JNIEXPORT jfloat JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_filterUniqueReads( JNIEnv* env, jclass cls, jobject optsBuf, jobject stageOptsBuf, jlong readsHandle ) {
+    fml_opt_t opt;
+    getStageOpts(env, optsBuf, stageOptsBuf, &opt);
+    return filterUniqueReads(&opt, (readset_t*)(intptr_t)readsHandle);
+}
+
+// the reads are copied, so that the read set can be reused
+JNIEXPORT jlong JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_buildIndex( JNIEnv* env, jclass cls, jobject optsBuf, jobject stageOptsBuf, jlong readsHandle ) {
+    fml_opt_t opt;
+    getStageOpts(env, optsBuf, stageOptsBuf, &opt);
+    readset_t copy;
+    if ( !copyReads((readset_t*)(intptr_t)readsHandle, &copy) ) return 0;
+    return (jlong)(intptr_t)indexReads(&opt, &copy);
+}
+
+// fml_fmi2mag builds the graph with this routine from fermi-lite's misc.c, and then destroys the index.
+// we call it directly, so that the index survives.  (we declare it ourselves, rather than rely on fml.h.)
+struct mag_t* fml_fmi2mag_core( const struct rld_t* e, const magopt_t* opt, int min_asm_ovlp, int min_merge_len,
+                                int n_threads );
+
+// the index is left as it was, so that more graphs can be built from it
+JNIEXPORT jlong JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_buildGraph( JNIEnv* env, jclass cls, jobject optsBuf, jobject stageOptsBuf, jlong indexHandle ) {
+    fml_opt_t opt;
+    getStageOpts(env, optsBuf, stageOptsBuf, &opt);
+    return (jlong)(intptr_t)fml_fmi2mag_core((const struct rld_t*)(intptr_t)indexHandle, &opt.mag_opt,
+                                             opt.min_asm_ovlp, opt.min_merge_len, opt.n_threads);
+}
+
+JNIEXPORT void JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_cleanGraph( JNIEnv* env, jclass cls, jobject optsBuf, jobject stageOptsBuf, jlong graphHandle, jfloat kcov ) {
+    fml_opt_t opt;
+    getStageOpts(env, optsBuf, stageOptsBuf, &opt);
+    cleanGraph(&opt, (struct mag_t*)(intptr_t)graphHandle, kcov);
+}
+
+// the graph is consumed
+JNIEXPORT jobject JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_emitUnitigs( JNIEnv* env, jclass cls, jlong graphHandle ) {
+    int32_t nUnitigs;
+    fml_utg_t* pUnitigs = fml_mag2utg((struct mag_t*)(intptr_t)graphHandle, &nUnitigs); // frees the graph
+    return unitigsToByteBuffer(env, nUnitigs, pUnitigs, 0);
+}
+
+JNIEXPORT void JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_destroyReads( JNIEnv* env, jclass cls, jlong readsHandle ) {
+    readset_t* pSet = (readset_t*)(intptr_t)readsHandle;
+    freeReads(pSet);
+    free(pSet);
+}
+
+JNIEXPORT void JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_destroyIndex( JNIEnv* env, jclass cls, jlong indexHandle ) {
+    fml_fmi_destroy((struct rld_t*)(intptr_t)indexHandle);
+}
+
+JNIEXPORT void JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_destroyGraph( JNIEnv* env, jclass cls, jlong graphHandle ) {
+    fml_mag_destroy((struct mag_t*)(intptr_t)graphHandle);
+}
+
+JNIEXPORT jobject JNICALL
+Java_org_broadinstitute_hellbender_utils_fermi_FermiLiteAssembler_createByteBuffer( JNIEnv* env, jclass cls, jint capacity ) {
+    void* pBuf = malloc(capacity);
+    if ( !pBuf ) return 0;
+    jobject result = (*env)->NewDirectByteBuffer(env, pBuf, capacity);
+    if ( !result ) free(pBuf);
     return result;
 }
 
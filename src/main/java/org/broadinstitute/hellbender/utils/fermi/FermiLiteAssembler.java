@@ -1,24 +1,34 @@
 package org.broadinstitute.hellbender.utils.fermi;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Class that allows you to exercise Heng Li's fermi-lite assembler.
  * This is backed by JNI native code, which could fail to load.
- * This class is not thread-safe, but it's very light-weight:  just use a separate instance in each thread.
+ * This class is not thread-safe, but it's very light-weight:  just use a separate instance in each thread,
+ * or let a {@link FermiLiteAssemblerPool} manage a set of them for you.
  */
 public final class FermiLiteAssembler implements AutoCloseable {
     private static volatile boolean nativeLibLoaded = false;
+    private static FermiLiteBackend backend; // null for JNI.  written before nativeLibLoaded is set.
     private ByteBuffer opts;
+    private ByteBuffer readData; // reusable native buffer for marshalling reads, grown as needed
+    private int[] readLengths = new int[1024]; // reusable scratch space for the table of read lengths
+    private long nMarshalledReads; // what's in the read buffer, and how long it took to put it there
+    private long nMarshalledBases;
+    private long marshalNanos;
+    private long nativeNanos; // how long the most recent native assembly call took
+    private final ByteBuffer stageTimes = // for the native code to report how long each stage of an assembly took
+            ByteBuffer.allocateDirect(8*FermiLiteAssemblyMetrics.Stage.values().length).order(ByteOrder.nativeOrder());
+    private FermiLiteAssemblyMetrics lastMetrics;
 
     public FermiLiteAssembler() {
         loadNativeLibrary();
@@ -29,6 +39,15 @@ public final class FermiLiteAssembler implements AutoCloseable {
         opts.order(ByteOrder.nativeOrder()).position(0).limit(opts.capacity());
     }
 
+    /** Make a new assembler with the same options as some other one. */
+    public FermiLiteAssembler( final FermiLiteAssembler template ) {
+        this();
+        final ByteBuffer templateOpts = template.getOpts();
+        for ( int idx = 0; idx < getOptsSize(); idx += 4 ) {
+            opts.putInt(idx, templateOpts.getInt(idx));
+        }
+    }
+
     public boolean isOpen() { return opts != null; }
 
     @Override
@@ -37,6 +56,10 @@ public final class FermiLiteAssembler implements AutoCloseable {
             destroyByteBuffer(opts);
             opts = null;
         }
+        if ( readData != null ) {
+            freeNativeBuffer(readData);
+            readData = null;
+        }
     }
 
     public interface BasesAndQuals {
@@ -44,6 +67,41 @@ public final class FermiLiteAssembler implements AutoCloseable {
         byte[] getQuals();
     }
 
+    /**
+     * A read that puts its bases and quals directly into the native read buffer, so that an adapter over some other
+     * representation of a read (a BAM record, say) needn't allocate a pair of arrays for each read.
+     * The bases and quals are encoded just as BasesAndQuals would return them.  Each put method is given the read
+     * buffer positioned where the data should go, and limited to the end of the space for it, so relative puts can't
+     * run into the next read.  It must use relative puts, and leave the buffer positioned just past what it put:  a
+     * read that leaves the buffer anywhere else is rejected.  The buffer is shared by all the reads in the set, so a
+     * put method that repositions it can overwrite the data of the reads before it.
+     */
+    public interface PackedRead {
+        /** number of bases */
+        int getLength();
+        /** Put getLength() bases.  Use {@link #putBAMBases} for bases packed 2 to a byte, as in a BAM record. */
+        void putBases( ByteBuffer buffer );
+        /** Put getLength() quals, or put nothing and return false if the read has no quals. */
+        boolean putQuals( ByteBuffer buffer );
+    }
+
+    // the meanings of the 4-bit base codes in a BAM record
+    private static final byte[] BAM_BASES = "=ACMGRSVTWYHKDBN".getBytes();
+
+    /**
+     * Decode nBases bases packed 2 to a byte (high nibble first), as in a BAM record, starting at packedBases[offset],
+     * and put them into the buffer.
+     */
+    public static void putBAMBases( final ByteBuffer buffer, final byte[] packedBases, final int offset,
+                                    final int nBases ) {
+        final int nPairs = nBases / 2;
+        for ( int idx = 0; idx != nPairs; ++idx ) {
+            final int pair = packedBases[offset + idx];
+            buffer.put(BAM_BASES[(pair >> 4) & 0xf]).put(BAM_BASES[pair & 0xf]);
+        }
+        if ( (nBases & 1) != 0 ) buffer.put(BAM_BASES[(packedBases[offset + nPairs] >> 4) & 0xf]);
+    }
+
     /** number of threads; don't use multi-threading for small data sets */
     public int getNThreads() { return getOpts().getInt(0); }
     public void setNThreads( final int nThreads ) { getOpts().putInt(0,nThreads); }
@@ -95,6 +153,16 @@ public final class FermiLiteAssembler implements AutoCloseable {
     int getExpectedOptsSize() { return 80; }
     int getOptsSize() { return getOpts().capacity(); }
 
+    /**
+     * Metrics for the most recent call to createAssembly (with reads), createAssemblyView, createAssemblies, or
+     * FermiLiteAssemblySession.assemble, or null if there hasn't been one.  (Staged assemblies aren't measured:  you can time the stages yourself.)
+     * It's also null after a FermiLiteAssemblyCache answers a request from the cache, since no assembly was run.
+     */
+    public FermiLiteAssemblyMetrics getLastMetrics() { return lastMetrics; }
+
+    // Forgets the metrics of the last assembly, when the assembler has been used for something that wasn't one.
+    void clearLastMetrics() { lastMetrics = null; }
+
     /**
      * Create an assembly from a collection of objects that implement BasesAndQuals.
      */
@@ -104,16 +172,329 @@ public final class FermiLiteAssembler implements AutoCloseable {
 
     /**
      * Create an assembly from a collection of objects that can be transformed (with a lambda) into BasesAndQuals.
+     * This is the one entry point that uses the backend chosen by LIBFML_BACKEND (see getBackendName):  all the
+     * others always use JNI.
      */
     public <T> FermiLiteAssembly createAssembly( final Iterable<T> reads, final Function<T,BasesAndQuals> func ) {
+        return createAssembly(backend, reads, func);
+    }
+
+    // Create an assembly with a particular backend (null for JNI).
+    <T> FermiLiteAssembly createAssembly( final FermiLiteBackend backend, final Iterable<T> reads,
+                                          final Function<T,BasesAndQuals> func ) {
+        getOpts();
+        if ( backend != null ) return backend.createAssembly(this, reads, func);
+        return assembleReadData(makeReadData(reads, func));
+    }
+
+    /**
+     * Create an assembly from a collection of PackedReads.
+     */
+    public FermiLiteAssembly createAssemblyFromPackedReads( final Iterable<? extends PackedRead> packedReads ) {
+        return createAssemblyFromPackedReads(packedReads, packedRead -> packedRead);
+    }
+
+    /**
+     * Create an assembly from a collection of objects that can be transformed (with a lambda) into PackedReads.
+     * This always uses the JNI backend.
+     */
+    public <T> FermiLiteAssembly createAssemblyFromPackedReads( final Iterable<T> reads,
+                                                                final Function<T,PackedRead> func ) {
+        getOpts();
+        return assembleReadData(makePackedReadData(reads, func));
+    }
+
+    // Assemble reads that have already been marshalled into the read buffer by makeReadData.
+    FermiLiteAssembly assembleReadData( final ByteBuffer readData ) {
         final ByteBuffer tmpOpts = getOpts();
-        final ByteBuffer assemblyData = createAssemblyData(tmpOpts,makeReadData(reads, func));
-        if ( assemblyData == null ) throw new IllegalStateException("Unable to create assembly. Out of memory?");
+        return runAssembly(1, () -> createAssemblyData(tmpOpts,readData,stageTimes),
+                            assemblyData -> Collections.singletonList(interpretAssemblyData(assemblyData))).get(0);
+    }
+
+    // Calls the native code within a reservation from the process memory budget, decodes the assembly data that
+    // it returns, frees that data, and records the metrics.
+    private List<FermiLiteAssembly> runAssembly( final long nAssemblies, final Supplier<ByteBuffer> nativeCall,
+                                                 final Function<ByteBuffer,List<FermiLiteAssembly>> decoder ) {
+        final Object event = FermiLiteAssemblyMetrics.beginEvent();
+        final ByteBuffer assemblyData = callNative(nAssemblies, nativeCall);
+        final long decodeStartTime = System.nanoTime();
+        final List<FermiLiteAssembly> assemblies;
+        try {
+            assemblies = decoder.apply(assemblyData);
+        } finally {
+            freeNativeBuffer(assemblyData);
+        }
+        long nContigs = 0;
+        long nEdges = 0;
+        for ( final FermiLiteAssembly assembly : assemblies ) {
+            nContigs += assembly.getNContigs();
+            for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+                nEdges += contig.getConnections().size();
+            }
+        }
+        recordMetrics(assemblies.size(), nContigs, nEdges, assemblyData.capacity(),
+                        System.nanoTime() - decodeStartTime, event);
+        return assemblies;
+    }
+
+    // Calls the native code within a reservation from the process memory budget, and tracks the assembly data
+    // that it returns.  Sets nativeNanos.
+    private ByteBuffer callNative( final long nAssemblies, final Supplier<ByteBuffer> nativeCall ) {
+        return FermiLiteMemoryBudget.reserveForAssembly(nAssemblies, nMarshalledReads, nMarshalledBases, () -> {
+            final long startTime = System.nanoTime();
+            final ByteBuffer assemblyData = trackNativeBuffer(nativeCall.get());
+            nativeNanos = System.nanoTime() - startTime;
+            return assemblyData;
+        });
+    }
+
+    private void recordMetrics( final long nAssemblies, final long nContigs, final long nEdges,
+                                final long resultBytes, final long decodeNanos, final Object event ) {
+        final long[] stageNanos = new long[FermiLiteAssemblyMetrics.Stage.values().length];
+        for ( int idx = 0; idx != stageNanos.length; ++idx ) {
+            stageNanos[idx] = stageTimes.getLong(8*idx);
+        }
+        recordMetrics(new FermiLiteAssemblyMetrics(nAssemblies, nMarshalledReads, nMarshalledBases, marshalNanos,
+                nativeNanos, stageNanos, nContigs, nEdges, resultBytes, decodeNanos), event);
+    }
+
+    void recordMetrics( final FermiLiteAssemblyMetrics metrics, final Object event ) {
+        lastMetrics = metrics;
+        FermiLiteAssemblyMetrics.record(metrics, event);
+    }
+
+    /**
+     * Create a view of an assembly from a collection of objects that implement BasesAndQuals.
+     * See {@link #createAssemblyView(Iterable, Function)}.
+     */
+    public FermiLiteAssemblyView createAssemblyView( final Iterable<? extends BasesAndQuals> basesAndQuals ) {
+        return createAssemblyView(basesAndQuals, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Create a view of an assembly from a collection of objects that can be transformed (with a lambda) into
+     * BasesAndQuals.  The view reads the contigs directly from the native assembly data on demand, instead of
+     * copying them all onto the heap.  You must close the view to free the native data.
+     */
+    public <T> FermiLiteAssemblyView createAssemblyView( final Iterable<T> reads, final Function<T,BasesAndQuals> func ) {
+        final ByteBuffer tmpOpts = getOpts();
+        final ByteBuffer tmpReadData = makeReadData(reads, func);
+        final Object event = FermiLiteAssemblyMetrics.beginEvent();
+        final ByteBuffer assemblyData = callNative(1, () -> createAssemblyData(tmpOpts,tmpReadData,stageTimes));
+        final long decodeStartTime = System.nanoTime();
+        try {
+            final FermiLiteAssemblyView view = new FermiLiteAssemblyView(assemblyData, true);
+            recordMetrics(1, view.getNContigs(), view.getNEdges(), assemblyData.capacity(),
+                            System.nanoTime() - decodeStartTime, event);
+            return view;
+        } catch ( final RuntimeException | Error e ) {
+            freeNativeBuffer(assemblyData); // nobody has the view to close
+            throw e;
+        }
+    }
+
+    /**
+     * Stage 1 of a staged assembly:  copy a collection of objects that implement BasesAndQuals into native memory,
+     * and adjust the current options for them.  See {@link FermiLiteStages}.
+     */
+    public FermiLiteStages.Reads loadReads( final Iterable<? extends BasesAndQuals> basesAndQuals ) {
+        return loadReads(basesAndQuals, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Stage 1 of a staged assembly:  copy a collection of objects that can be transformed (with a lambda) into
+     * BasesAndQuals into native memory, and adjust the current options for them.  If there's a process memory
+     * budget, this reserves the footprint of the whole staged assembly.  See {@link FermiLiteStages}.
+     */
+    public <T> FermiLiteStages.Reads loadReads( final Iterable<T> reads, final Function<T,BasesAndQuals> func ) {
+        final ByteBuffer tmpOpts = getOpts();
+        final ByteBuffer tmpReadData = makeReadData(reads, func);
+        final int nReads = tmpReadData.getInt(0);
+        final ByteBuffer stageOpts = ByteBuffer.allocateDirect(2*getOptsSize()).order(ByteOrder.nativeOrder());
+        final FermiLiteStages.Footprint footprint = new FermiLiteStages.Footprint(
+                FermiLiteMemoryBudget.reserveForStagedAssembly(nMarshalledReads, nMarshalledBases));
+        final long handle = loadReads(tmpOpts, tmpReadData, stageOpts);
+        if ( handle == 0 ) {
+            footprint.release();
+            throw new IllegalStateException("Unable to load reads. Out of memory?");
+        }
+        // the native read set is about as big as the read data that we copied into it
+        return new FermiLiteStages.Reads(handle, nReads, tmpReadData.limit(), stageOpts, footprint);
+    }
+
+    /** Stage 2 of a staged assembly:  error-correct the reads in place (if getECKSize() isn't negative). */
+    public void correctErrors( final FermiLiteStages.Reads reads ) {
+        final long handle = reads.getHandle();
+        if ( reads.isCorrected() || reads.isFiltered() ) {
+            throw new IllegalStateException("The reads have already been corrected or filtered.");
+        }
+        if ( reads.getNReads() > 0 ) correctReads(getOpts(), reads.getStageOpts(), handle);
+        reads.setCorrected();
+    }
+
+    /** Stage 3 of a staged assembly:  trim or drop reads with unique k-mers, and estimate k-mer coverage. */
+    public void filterUnique( final FermiLiteStages.Reads reads ) {
+        final long handle = reads.getHandle();
+        if ( reads.isFiltered() ) throw new IllegalStateException("The reads have already been filtered.");
+        reads.setFiltered(reads.getNReads() > 0 ? filterUniqueReads(getOpts(), reads.getStageOpts(), handle) : 0.f);
+    }
+
+    /** Stage 4 of a staged assembly:  build an FM-index of (a copy of) the reads.  The reads remain usable. */
+    public FermiLiteStages.Index buildIndex( final FermiLiteStages.Reads reads ) {
+        final long readsHandle = reads.getHandle();
+        final ByteBuffer tmpOpts = getOpts();
+        final FermiLiteStages.Footprint footprint = reads.getFootprint().hold();
+        if ( reads.getNReads() == 0 ) return new FermiLiteStages.Index(0L, 0.f, reads.getStageOpts(), footprint);
+        final long handle = buildIndex(tmpOpts, reads.getStageOpts(), readsHandle);
+        if ( handle == 0 ) {
+            footprint.release();
+            throw new IllegalStateException("Unable to build index. Out of memory?");
+        }
+        return new FermiLiteStages.Index(handle, reads.getKmerCoverage(), reads.getStageOpts(), footprint);
+    }
+
+    /**
+     * Stage 5 of a staged assembly:  build an overlap graph from the index.  The index remains usable, so you can
+     * build other graphs from it, with other options.
+     */
+    public FermiLiteStages.OverlapGraph buildGraph( final FermiLiteStages.Index index ) {
+        final ByteBuffer tmpOpts = getOpts();
+        final long indexHandle = index.getHandle();
+        final float kmerCoverage = index.getKmerCoverage();
+        final ByteBuffer stageOpts = index.getStageOpts();
+        final FermiLiteStages.Footprint footprint = index.getFootprint().hold();
+        if ( indexHandle == 0 ) return new FermiLiteStages.OverlapGraph(0L, kmerCoverage, stageOpts, footprint);
+        final long handle = buildGraph(tmpOpts, stageOpts, indexHandle);
+        if ( handle == 0 ) {
+            footprint.release();
+            throw new IllegalStateException("Unable to build graph. Out of memory?");
+        }
+        return new FermiLiteStages.OverlapGraph(handle, kmerCoverage, stageOpts, footprint);
+    }
+
+    /** Stage 6 of a staged assembly:  clean the graph in place, using the current cleaning options. */
+    public void cleanGraph( final FermiLiteStages.OverlapGraph graph ) {
+        final ByteBuffer tmpOpts = getOpts();
+        final long handle = graph.getHandle();
+        if ( handle != 0 ) cleanGraph(tmpOpts, graph.getStageOpts(), handle, graph.getKmerCoverage());
+        graph.setCleaned();
+    }
+
+    /** Stage 7 of a staged assembly:  turn the graph into an assembly of unitigs.  The graph is consumed. */
+    public FermiLiteAssembly emitUnitigs( final FermiLiteStages.OverlapGraph graph ) {
+        final long handle = graph.consume();
         try {
-            return interpretAssemblyData(assemblyData);
+            if ( handle == 0 ) return new FermiLiteAssembly(new ArrayList<>());
+            final ByteBuffer assemblyData = trackNativeBuffer(emitUnitigs(handle));
+            try {
+                return interpretAssemblyData(assemblyData);
+            } finally {
+                freeNativeBuffer(assemblyData);
+            }
         } finally {
-            destroyByteBuffer(assemblyData);
+            graph.getFootprint().release();
+        }
+    }
+
+    /**
+     * Finish a staged assembly with the current options:  index, build the graph, clean it, and emit unitigs.
+     * The reads are error-corrected and filtered first, if that hasn't been done already.
+     * The reads remain usable, so you can call this repeatedly with different graph-building and cleaning options,
+     * though each call rebuilds the FM-index.  To reuse the index, call the later stages yourself
+     * (see {@link FermiLiteStages}).
+     */
+    public FermiLiteAssembly createAssembly( final FermiLiteStages.Reads reads ) {
+        if ( !reads.isCorrected() && !reads.isFiltered() ) correctErrors(reads);
+        if ( !reads.isFiltered() ) filterUnique(reads);
+        try ( final FermiLiteStages.Index index = buildIndex(reads);
+              final FermiLiteStages.OverlapGraph graph = buildGraph(index) ) {
+            cleanGraph(graph);
+            return emitUnitigs(graph);
+        }
+    }
+
+    /**
+     * Open a session that accumulates reads in native memory, a chunk at a time, and then assembles them.
+     * See {@link FermiLiteAssemblySession}.
+     */
+    public FermiLiteAssemblySession openSession() {
+        getOpts();
+        final long handle = createReads();
+        if ( handle == 0 ) throw new IllegalStateException("Unable to open session. Out of memory?");
+        return new FermiLiteAssemblySession(this, handle);
+    }
+
+    // Copies a chunk of reads into a session's native read set.
+    <T> void addReads( final FermiLiteAssemblySession session, final Iterable<T> reads,
+                       final Function<T,BasesAndQuals> func ) {
+        final long readsHandle = session.getHandle();
+        getOpts();
+        final long startTime = System.nanoTime();
+        addReadData(session, readsHandle, makeReadData(reads, func), startTime);
+    }
+
+    // Copies a chunk of packed reads into a session's native read set.
+    <T> void addPackedReads( final FermiLiteAssemblySession session, final Iterable<T> reads,
+                             final Function<T,PackedRead> func ) {
+        final long readsHandle = session.getHandle();
+        getOpts();
+        final long startTime = System.nanoTime();
+        addReadData(session, readsHandle, makePackedReadData(reads, func), startTime);
+    }
+
+    private void addReadData( final FermiLiteAssemblySession session, final long readsHandle,
+                              final ByteBuffer tmpReadData, final long startTime ) {
+        if ( session.getNReads() + nMarshalledReads > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException("A session can't hold more than " + Integer.MAX_VALUE + " reads.");
         }
+        if ( !appendReads(readsHandle, tmpReadData) ) {
+            throw new IllegalStateException("Unable to add reads. Out of memory?");
+        }
+        // the native read set grows by about as much as the read data that we copied into it
+        session.added(nMarshalledReads, nMarshalledBases, tmpReadData.limit(), System.nanoTime() - startTime);
+    }
+
+    // Assembles (and consumes) a session's reads.
+    FermiLiteAssembly assemble( final FermiLiteAssemblySession session ) {
+        final long readsHandle = session.getHandle();
+        final ByteBuffer tmpOpts = getOpts();
+        // the metrics describe the session's reads, rather than the last chunk in the read buffer
+        nMarshalledReads = session.getNReads();
+        nMarshalledBases = session.getNBases();
+        marshalNanos = session.getMarshalNanos();
+        return runAssembly(1, () -> {
+                try {
+                    return assembleReads(tmpOpts,readsHandle,stageTimes);
+                } finally {
+                    session.clear(); // the reads have been consumed, even if the assembly failed
+                }
+            }, assemblyData -> Collections.singletonList(interpretAssemblyData(assemblyData))).get(0);
+    }
+
+    /**
+     * Create an assembly for each of a list of read sets that implement BasesAndQuals.
+     * See {@link #createAssemblies(List, Function)}.
+     */
+    public List<FermiLiteAssembly> createAssemblies( final List<? extends Iterable<? extends BasesAndQuals>> readSets ) {
+        return createAssemblies(readSets, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Create an assembly for each of a list of read sets in a single trip through the native code.
+     * This amortizes the per-call overhead when there are lots of small assemblies to do.
+     * The read sets are assembled independently by a pool of getNThreads() native worker threads, each of which
+     * runs its assemblies single-threaded.  The assemblies are returned in the same order as the read sets.
+     * The native results for the whole batch must fit into a 2GB buffer:  if they don't, this throws an
+     * IllegalArgumentException, and you'll have to split the read sets into smaller batches.
+     */
+    public <T> List<FermiLiteAssembly> createAssemblies( final List<? extends Iterable<? extends T>> readSets,
+                                                         final Function<T,BasesAndQuals> func ) {
+        final ByteBuffer tmpOpts = getOpts();
+        final ByteBuffer tmpReadData = makeBatchReadData(readSets, func);
+        final int nThreads = Math.max(1, getNThreads());
+        return runAssembly(readSets.size(),
+                            () -> createBatchAssemblyData(tmpOpts, tmpReadData, nThreads, stageTimes),
+                            FermiLiteAssembler::interpretBatchAssemblyData);
     }
 
     public static String getFermiLiteVersion() {
@@ -125,73 +506,210 @@ public final class FermiLiteAssembler implements AutoCloseable {
         if ( !nativeLibLoaded ) {
             synchronized(FermiLiteAssembler.class) {
                 if ( !nativeLibLoaded ) {
-                    final String libNameOverride = System.getProperty("LIBFML_PATH");
-                    if ( libNameOverride != null ) {
-                        System.load(libNameOverride);
-                    }
-                    else {
-                        final String osName = System.getProperty("os.name", "unknown").toUpperCase();
-                        final String osArch = System.getProperty("os.arch");
-                        final String libName;
-                        if ( !"x86_64".equals(osArch) && !"amd64".equals(osArch) ) {
-                            throw new IllegalStateException(
-                                    "We have pre-built fermi-lite binaries only for x86_64 and amd64.  "+
-                                    "Your os.arch is "+osArch+"."+
-                                    "Set property LIBFML_PATH to point to a native library for your architecture.");
-                        }
-                        if ( osName.startsWith("MAC") ) libName = "/libfml.Darwin.dylib";
-                        else if ( osName.startsWith("LINUX") ) libName = "/libfml.Linux.so";
-                        else {
-                            throw new IllegalStateException(
-                                    "We have pre-built fermi-lite binaries only for Linux and Mac.  "+
-                                    "Your os.name is "+osName+"."+
-                                    "Set property LIBFML_PATH to point to a native library for your operating system.");
-                        }
-                        try ( final InputStream is = FermiLiteAssembler.class.getResourceAsStream(libName) ) {
-                            if ( is == null ) {
-                                throw new IllegalStateException("Can't find resource "+libName);
-                            }
-                            final File tmpFile = File.createTempFile("libfml.",".jnilib");
-                            tmpFile.deleteOnExit();
-                            Files.copy(is, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                            System.load(tmpFile.getPath());
-                        }
-                        catch (IOException ioe ) {
-                            throw new IllegalStateException("Misconfiguration: Unable to load fermi-lite native library "+libName, ioe);
-                        }
-                    }
+                    FermiLiteLibraryLoader.load();
+                    backend = FermiLiteBackend.select();
                     nativeLibLoaded = true;
                 }
             }
         }
     }
 
-    // Writes the number of reads, and then seqs and quals for each into a ByteBuffer.
-    private static <T> ByteBuffer makeReadData( final Iterable<T> reads, final Function<T,BasesAndQuals> func ) {
-        // capacity calculation:
-        //   4 bytes to give the number of reads, plus
-        //   for each read,
-        //     for each base call, we need two bytes (one for the base, one for the qual)
-        //     additionally, we need two bytes for the terminating nulls after the calls
-        //     i.e., 2*(length+1)
+    /**
+     * The backend that createAssembly(Iterable, Function) uses to talk to fermi-lite:  "jni" or "ffm".
+     * See FermiLiteBackend.  Every other call uses JNI, whatever this says.
+     */
+    public static String getBackendName() {
+        loadNativeLibrary();
+        return backend == null ? FermiLiteBackend.JNI : backend.getName();
+    }
+
+    /**
+     * The native buffer that holds the reads grows as needed, and is reused from one assembly to the next.
+     * If you know roughly how big your read sets will be, you can size it up front so that it never has to grow.
+     */
+    public void reserveReadCapacity( final int nReads, final long nBases ) {
+        getOpts(); // just to check that we're open
+        clearReadData(16L + 2L*nBases + 4L*nReads);
+        if ( readLengths.length < nReads ) readLengths = new int[nReads];
+    }
+
+    /** Current size of the native buffer that holds the reads. */
+    public int getReadCapacity() { return readData == null ? 0 : readData.capacity(); }
+
+    // Returns the read buffer, cleared, with at least the specified capacity.
+    private ByteBuffer clearReadData( final long capacity ) {
+        if ( readData != null ) readData.clear();
+        nMarshalledReads = 0;
+        nMarshalledBases = 0;
+        marshalNanos = 0;
+        return ensureReadDataCapacity(capacity);
+    }
+
+    // Makes sure there's room for nBytes more bytes after the current position in the read buffer.
+    // If the buffer must grow, its contents (up to the current position) are copied to the new buffer.
+    private ByteBuffer ensureReadDataCapacity( final long nBytes ) {
+        final long minCapacity = (readData == null ? 0L : readData.position()) + nBytes;
+        if ( readData != null && readData.capacity() >= minCapacity ) return readData;
+        if ( minCapacity > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException("Too much read data:  the reads must fit into a 2GB buffer.");
+        }
+        final long newCapacity =
+                Math.min(Integer.MAX_VALUE, Math.max(minCapacity, readData == null ? 4096L : 2L*readData.capacity()));
+        final ByteBuffer newReadData = createByteBuffer((int)newCapacity);
+        if ( newReadData == null ) throw new IllegalStateException("Unable to allocate read buffer. Out of memory?");
+        FermiLiteMemoryBudget.allocated(newReadData);
+        newReadData.order(ByteOrder.nativeOrder()).position(0).limit(newReadData.capacity());
+        if ( readData != null ) {
+            readData.flip();
+            newReadData.put(readData);
+            freeNativeBuffer(readData);
+        }
+        readData = newReadData;
+        return readData;
+    }
+
+    // Writes a read set into the read buffer:
+    //   the number of reads (4-byte int)
+    //   the offset from the start of the read set to the table of read lengths (4-byte int)
+    //   the bases and then the quals of each read (not null terminated), padded to a multiple of 4 bytes
+    //   the table of read lengths (4-byte int for each read)
+    // Each read is visited once, and func is called just once for each read.
+    // The read set must start at a 4-byte aligned position, and it also ends on one.
+    private <T> void appendReadSet( final Iterable<? extends T> reads, final Function<T,BasesAndQuals> func ) {
+        final int setStart = startReadSet();
         int nReads = 0;
-        int capacity = 4;
         for ( final T read : reads ) {
-            nReads += 1;
-            capacity += 2*(func.apply(read).getBases().length + 1);
+            final BasesAndQuals bAndQ = func.apply(read);
+            final byte[] bases = bAndQ.getBases();
+            final byte[] quals = bAndQ.getQuals();
+            if ( bases.length != quals.length ) {
+                throw new IllegalArgumentException("Read " + (nReads + 1) + " has " + bases.length + " bases, but " +
+                        quals.length + " quals.");
+            }
+            ensureReadDataCapacity(2L*bases.length);
+            readData.put(bases).put(quals);
+            nMarshalledBases += bases.length;
+            setReadLength(nReads++, bases.length);
         }
-        final ByteBuffer readData = ByteBuffer.allocateDirect(capacity);
-        readData.order(ByteOrder.nativeOrder());
-        readData.putInt(nReads); // array length
+        finishReadSet(setStart, nReads);
+    }
+
+    // Writes a read set of PackedReads into the read buffer, in the same format as appendReadSet.
+    // A read without quals has the high bit of its length set, and just its bases in the read data.
+    private <T> void appendPackedReadSet( final Iterable<? extends T> reads, final Function<T,PackedRead> func ) {
+        final int setStart = startReadSet();
+        ByteBuffer readBuffer = null; // a duplicate of readData for the put methods, so they can't move readData itself
+        int nReads = 0;
         for ( final T read : reads ) {
-            final BasesAndQuals bAndQ = func.apply(read);
-            readData.put(bAndQ.getBases()).put((byte)0);
-            readData.put(bAndQ.getQuals()).put((byte)0);
+            final PackedRead packedRead = func.apply(read);
+            final int length = packedRead.getLength();
+            if ( length < 0 ) throw new IllegalArgumentException("Read " + (nReads + 1) + " has a negative length.");
+            final int start = ensureReadDataCapacity(2L*length).position();
+            // readData only grows, so a change of capacity means that it has been replaced, and needs a new duplicate
+            if ( readBuffer == null || readBuffer.capacity() != readData.capacity() ) readBuffer = readData.duplicate();
+            readBuffer.limit(start + length);
+            readBuffer.position(start);
+            final boolean hasQuals;
+            try {
+                packedRead.putBases(readBuffer);
+                if ( readBuffer.position() != start + length ) {
+                    throw new IllegalArgumentException("Read " + (nReads + 1) + " has " + length + " bases, but " +
+                            "putBases advanced the buffer by " + (readBuffer.position() - start) + ".");
+                }
+                readBuffer.limit(start + 2*length);
+                hasQuals = packedRead.putQuals(readBuffer);
+            } catch ( final BufferOverflowException | IndexOutOfBoundsException e ) {
+                throw new IllegalArgumentException("Read " + (nReads + 1) + " has " + length + " bases, but put more " +
+                        (readBuffer.limit() == start + length ? "bases." : "quals."), e);
+            }
+            if ( readBuffer.position() != start + (hasQuals ? 2*length : length) ) {
+                throw new IllegalArgumentException("Read " + (nReads + 1) + " has " + length + " bases, but " +
+                        "putQuals advanced the buffer by " + (readBuffer.position() - start - length) + ".");
+            }
+            readData.position(readBuffer.position());
+            nMarshalledBases += length;
+            setReadLength(nReads++, hasQuals ? length : length | Integer.MIN_VALUE);
         }
+        finishReadSet(setStart, nReads);
+    }
+
+    // Writes a placeholder for a read set's header, and returns the position of the read set.
+    private int startReadSet() {
+        final int setStart = ensureReadDataCapacity(8).position();
+        readData.putInt(0).putInt(0);
+        return setStart;
+    }
+
+    private void setReadLength( final int readIdx, final int length ) {
+        if ( readIdx == readLengths.length ) readLengths = Arrays.copyOf(readLengths, 2*readIdx);
+        readLengths[readIdx] = length;
+    }
+
+    // Pads the read data, and writes the header and the table of read lengths.
+    private void finishReadSet( final int setStart, final int nReads ) {
+        ensureReadDataCapacity(3L + 4L*nReads);
+        while ( (readData.position() & 3) != 0 ) readData.put((byte)0);
+        readData.putInt(setStart, nReads);
+        readData.putInt(setStart + 4, readData.position() - setStart);
+        for ( int idx = 0; idx != nReads; ++idx ) {
+            readData.putInt(readLengths[idx]);
+        }
+        nMarshalledReads += nReads;
+    }
+
+    // Writes a read set into the read buffer.
+    <T> ByteBuffer makeReadData( final Iterable<T> reads, final Function<T,BasesAndQuals> func ) {
+        final long startTime = System.nanoTime();
+        clearReadData(4);
+        appendReadSet(reads, func);
+        readData.flip();
+        marshalNanos = System.nanoTime() - startTime;
+        return readData;
+    }
+
+    // Writes a read set of PackedReads into the read buffer.
+    private <T> ByteBuffer makePackedReadData( final Iterable<T> reads, final Function<T,PackedRead> func ) {
+        final long startTime = System.nanoTime();
+        clearReadData(4);
+        appendPackedReadSet(reads, func);
         readData.flip();
+        marshalNanos = System.nanoTime() - startTime;
+        return readData;
+    }
+
+    // Writes the number of read sets (4-byte int), and then each read set into the read buffer.
+    private <T> ByteBuffer makeBatchReadData( final List<? extends Iterable<? extends T>> readSets,
+                                              final Function<T,BasesAndQuals> func ) {
+        final long startTime = System.nanoTime();
+        clearReadData(4L + 4L*readSets.size());
+        readData.putInt(readSets.size());
+        for ( final Iterable<? extends T> reads : readSets ) {
+            appendReadSet(reads, func);
+        }
+        readData.flip();
+        marshalNanos = System.nanoTime() - startTime;
         return readData;
     }
 
+    // expects a direct ByteBuffer containing:
+    //  the number of assemblies (4-byte int)
+    //  4 bytes of padding
+    //  for each assembly, the offset to its data (4-byte int)
+    //  the data for each assembly in the format described for interpretAssemblyData
+    private static List<FermiLiteAssembly> interpretBatchAssemblyData( final ByteBuffer batchData ) {
+        batchData.order(ByteOrder.nativeOrder()).position(0).limit(batchData.capacity());
+        final int nAssemblies = batchData.getInt(0);
+        final List<FermiLiteAssembly> assemblies = new ArrayList<>(nAssemblies);
+        for ( int idx = 0; idx != nAssemblies; ++idx ) {
+            final int start = batchData.getInt(8 + 4*idx);
+            final int end = idx + 1 < nAssemblies ? batchData.getInt(12 + 4*idx) : batchData.capacity();
+            batchData.limit(end).position(start);
+            assemblies.add(interpretAssemblyData(batchData.slice()));
+            batchData.limit(batchData.capacity());
+        }
+        return assemblies;
+    }
+
     // expects a direct ByteBuffer containing:
     //  the number of contigs (4-byte int)
     //  the offset to the beginning of a byte pool containing sequence and per-base coverage bytes (4 byte int)
@@ -202,51 +720,24 @@ public final class FermiLiteAssembler implements AutoCloseable {
     //    the number of connections (4-byte int)
     //    a variable number (given by # of connections, above) of fml_ovlp_t's (8 bytes each)
     //  a byte pool containing the seq and cov data
-    private static FermiLiteAssembly interpretAssemblyData( final ByteBuffer assemblyData ) {
-        assemblyData.order(ByteOrder.nativeOrder()).position(0).limit(assemblyData.capacity());
-
-        // make the contigs
-        final int nContigs = assemblyData.getInt();
-        int seqOffset = assemblyData.getInt();
-        final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>(nContigs);
-        for ( int idx = 0; idx != nContigs; ++idx ) {
-            final int seqLen = assemblyData.getInt();
-            final int nSupportingReads = assemblyData.getInt();
-            final int nConnections = assemblyData.getInt();
-            final int mark = assemblyData.position()+8*nConnections; // sizeof(fml_ovlp_t) is 8
-            assemblyData.position(seqOffset);
-            final byte[] seq = new byte[seqLen];
-            assemblyData.get(seq);
-            final byte[] coverage = new byte[seqLen];
-            assemblyData.get(coverage);
-            contigs.add(new FermiLiteAssembly.Contig(seq,coverage,nSupportingReads));
-            assemblyData.position(mark);
-            seqOffset += 2*seqLen;
-        }
-        // connect the contigs
-        assemblyData.position(8); // skip past nContigs and seqOffset
-        for ( int idx = 0; idx != nContigs; ++idx ) {
-            final FermiLiteAssembly.Contig contig = contigs.get(idx);
-            assemblyData.getInt(); // skip seqLen
-            assemblyData.getInt(); // skip # of supporting reads
-            int nConnections = assemblyData.getInt();
-            final List<FermiLiteAssembly.Connection> connections = new ArrayList<>(nConnections);
-            while ( nConnections-- > 0 ) {
-                int overlapLen = assemblyData.getInt();
-                final boolean isSrc3Prime = overlapLen < 0;
-                overlapLen = overlapLen & Integer.MAX_VALUE; // turn off highest bit (which is now in isSrc3Prime)
-                int contigId = assemblyData.getInt();
-                final boolean isTarget3Prime = contigId < 0;
-                contigId = contigId & Integer.MAX_VALUE; // turn off highest bit (which is now in isTarget3Prime)
-                connections.add(new FermiLiteAssembly.Connection(contigs.get(contigId), overlapLen, !isSrc3Prime, isTarget3Prime));
-            }
-            contig.setConnections(connections);
-        }
+    static FermiLiteAssembly interpretAssemblyData( final ByteBuffer assemblyData ) {
+        return new FermiLiteAssemblyView(assemblyData, false).toAssembly();
+    }
+
+    // Counts a newly allocated native assembly buffer in FermiLiteMemoryBudget.getUsedBytes().
+    private static ByteBuffer trackNativeBuffer( final ByteBuffer assemblyData ) {
+        if ( assemblyData == null ) throw new IllegalStateException("Unable to create assembly. Out of memory?");
+        FermiLiteMemoryBudget.allocated(assemblyData);
+        return assemblyData;
+    }
 
-        return new FermiLiteAssembly(contigs);
+    // Frees a native buffer that was counted in FermiLiteMemoryBudget.getUsedBytes().
+    static void freeNativeBuffer( final ByteBuffer byteBuffer ) {
+        FermiLiteMemoryBudget.freed(byteBuffer);
+        destroyByteBuffer(byteBuffer);
     }
 
-    private ByteBuffer getOpts() {
+    ByteBuffer getOpts() {
         if ( opts == null ) {
             throw new IllegalStateException("The assembler has been closed.");
         }
@@ -254,7 +745,29 @@ public final class FermiLiteAssembler implements AutoCloseable {
     }
 
     private static native ByteBuffer createDefaultOptions();
-    private static native ByteBuffer createAssemblyData( final ByteBuffer opts, final ByteBuffer readData );
-    private static native void destroyByteBuffer( final ByteBuffer byteBuffer );
+    // stageTimes may be null.  if it isn't, it receives the native time taken by each FermiLiteAssemblyMetrics.Stage.
+    static native ByteBuffer createAssemblyData( final ByteBuffer opts, final ByteBuffer readData,
+                                                 final ByteBuffer stageTimes );
+    private static native ByteBuffer createBatchAssemblyData( final ByteBuffer opts, final ByteBuffer readData,
+                                                              final int nWorkers, final ByteBuffer stageTimes );
+    private static native long loadReads( final ByteBuffer opts, final ByteBuffer readData, final ByteBuffer stageOpts );
+    private static native long createReads();
+    private static native boolean appendReads( final long readsHandle, final ByteBuffer readData );
+    // the reads are consumed, leaving the read set empty
+    private static native ByteBuffer assembleReads( final ByteBuffer opts, final long readsHandle,
+                                                    final ByteBuffer stageTimes );
+    private static native void correctReads( final ByteBuffer opts, final ByteBuffer stageOpts, final long readsHandle );
+    private static native float filterUniqueReads( final ByteBuffer opts, final ByteBuffer stageOpts,
+                                                   final long readsHandle );
+    private static native long buildIndex( final ByteBuffer opts, final ByteBuffer stageOpts, final long readsHandle );
+    private static native long buildGraph( final ByteBuffer opts, final ByteBuffer stageOpts, final long indexHandle );
+    private static native void cleanGraph( final ByteBuffer opts, final ByteBuffer stageOpts, final long graphHandle,
+                                           final float kmerCoverage );
+    private static native ByteBuffer emitUnitigs( final long graphHandle );
+    static native void destroyReads( final long readsHandle );
+    static native void destroyIndex( final long indexHandle );
+    static native void destroyGraph( final long graphHandle );
+    private static native ByteBuffer createByteBuffer( final int capacity );
+    static native void destroyByteBuffer( final ByteBuffer byteBuffer );
     private static native String getVersion();
 }
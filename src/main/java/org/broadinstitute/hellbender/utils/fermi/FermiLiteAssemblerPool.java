@@ -0,0 +1,149 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A thread-safe service that runs assemblies asynchronously on a fixed set of assemblers.
+ * Each assembler is a copy of a template, and each has its own worker thread.
+ * You can trade off parallelism across assemblies (nAssemblers) against parallelism within each assembly
+ * (nThreadsPerAssembly):  nAssemblers*nThreadsPerAssembly is the number of cores you'll keep busy.
+ * At most queueCapacity assemblies may wait for an assembler:  submit blocks when the queue is full.
+ */
+public final class FermiLiteAssemblerPool implements AutoCloseable {
+    private final BlockingQueue<FermiLiteAssembler> idleAssemblers;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+    private final int nAssemblers;
+    private final int queueCapacity;
+
+    public FermiLiteAssemblerPool( final FermiLiteAssembler template, final int nAssemblers,
+                                   final int nThreadsPerAssembly, final int queueCapacity ) {
+        if ( nAssemblers < 1 ) throw new IllegalArgumentException("nAssemblers must be positive");
+        if ( nThreadsPerAssembly < 1 ) throw new IllegalArgumentException("nThreadsPerAssembly must be positive");
+        if ( queueCapacity < 0 ) throw new IllegalArgumentException("queueCapacity must not be negative");
+        this.nAssemblers = nAssemblers;
+        this.queueCapacity = queueCapacity;
+        idleAssemblers = new ArrayBlockingQueue<>(nAssemblers);
+        try {
+            for ( int idx = 0; idx != nAssemblers; ++idx ) {
+                final FermiLiteAssembler assembler = new FermiLiteAssembler(template);
+                idleAssemblers.add(assembler);
+                assembler.setNThreads(nThreadsPerAssembly);
+            }
+        } catch ( final RuntimeException | Error throwable ) {
+            // don't leak the native buffers of the assemblers we managed to create
+            FermiLiteAssembler assembler;
+            while ( (assembler = idleAssemblers.poll()) != null ) {
+                assembler.close();
+            }
+            throw throwable;
+        }
+        permits = new Semaphore(nAssemblers + queueCapacity);
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(nAssemblers, nAssemblers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "fermi-lite-assembler-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** One single-threaded assembler per thread:  best for lots of small assemblies. */
+    public static FermiLiteAssemblerPool withInterAssemblyParallelism( final FermiLiteAssembler template,
+                                                                      final int nThreads, final int queueCapacity ) {
+        return new FermiLiteAssemblerPool(template, nThreads, 1, queueCapacity);
+    }
+
+    /** A single assembler using all the threads:  best for a few big assemblies. */
+    public static FermiLiteAssemblerPool withIntraAssemblyParallelism( final FermiLiteAssembler template,
+                                                                      final int nThreads, final int queueCapacity ) {
+        return new FermiLiteAssemblerPool(template, 1, nThreads, queueCapacity);
+    }
+
+    public int getNAssemblers() { return nAssemblers; }
+
+    /** Number of assemblies that have been submitted, but that haven't yet completed. */
+    public int getNPending() { return nAssemblers + queueCapacity - permits.availablePermits(); }
+
+    public boolean isOpen() { return !executor.isShutdown(); }
+
+    /**
+     * Queue an assembly of a collection of objects that implement BasesAndQuals.
+     */
+    public CompletableFuture<FermiLiteAssembly> submit( final Iterable<? extends FermiLiteAssembler.BasesAndQuals> reads ) {
+        return submit(reads, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Queue an assembly of a collection of objects that can be transformed (with a lambda) into BasesAndQuals.
+     * Blocks if the queue is full.  The reads are not examined until an assembler becomes available, so
+     * don't modify them until the returned future completes.
+     * If the calling thread is interrupted while waiting for space in the queue, the returned future completes
+     * exceptionally with an InterruptedException, and the thread's interrupt status is set.
+     */
+    public <T> CompletableFuture<FermiLiteAssembly> submit( final Iterable<T> reads,
+                                                            final Function<T,FermiLiteAssembler.BasesAndQuals> func ) {
+        return submitTask(assembler -> assembler.createAssembly(reads, func));
+    }
+
+    // Queues a task to run on the next idle assembler, as submit describes.
+    <R> CompletableFuture<R> submitTask( final Function<FermiLiteAssembler,R> task ) {
+        if ( !isOpen() ) {
+            throw new IllegalStateException("The assembler pool has been closed.");
+        }
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        try {
+            permits.acquire();
+        } catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(ie);
+            return result;
+        }
+        try {
+            executor.execute(() -> {
+                final FermiLiteAssembler assembler = idleAssemblers.poll();
+                try {
+                    result.complete(task.apply(assembler));
+                } catch ( final Throwable throwable ) {
+                    result.completeExceptionally(throwable);
+                } finally {
+                    idleAssemblers.add(assembler);
+                    permits.release();
+                }
+            });
+        } catch ( final RuntimeException re ) {
+            permits.release();
+            throw re;
+        }
+        return result;
+    }
+
+    /** Waits for queued assemblies to finish, and then frees the assemblers. */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while ( !executor.isTerminated() ) {
+            try {
+                executor.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch ( final InterruptedException ie ) {
+                interrupted = true;
+            }
+        }
+        FermiLiteAssembler assembler;
+        while ( (assembler = idleAssemblers.poll()) != null ) {
+            assembler.close();
+        }
+        if ( interrupted ) Thread.currentThread().interrupt();
+    }
+}
@@ -3,8 +3,9 @@ package org.broadinstitute.hellbender.utils.fermi;
 import java.io.*;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /** an assembly is just a collection of contigs */
 public final class FermiLiteAssembly {
@@ -18,6 +19,19 @@ public final class FermiLiteAssembly {
     public Contig getContig( final int idx ) { return contigs.get(idx); }
     public List<Contig> getContigs() { return contigs; }
 
+    /**
+     * Maps each contig to its index in this assembly.  Contigs may be shared among assemblies, so callers that
+     * need to look up connection targets build one of these per use rather than having the contigs carry an id.
+     */
+    Map<Contig, Integer> makeContigIdMap() {
+        final Map<Contig, Integer> idMap = new IdentityHashMap<>(contigs.size());
+        int id = 0;
+        for ( final Contig contig : contigs ) {
+            idMap.put(contig, id++);
+        }
+        return idMap;
+    }
+
     /** Computes the largest contig length such that at least half of the total assembly length is contained in
      *  contigs of that length or longer. */
     public int computeN50() {
@@ -122,11 +136,7 @@ public final class FermiLiteAssembly {
 
     /** Dump a fermi-lite native format description of the assembly. */
     public void writeGFA( final Writer writer ) throws IOException {
-        final HashMap<Contig, Integer> idMap = new HashMap<>((int)((contigs.size()*4L)/3) + 1);
-        int id = 0;
-        for (final Contig contig : contigs) {
-            idMap.put(contig, id++);
-        }
+        final Map<Contig, Integer> idMap = makeContigIdMap();
         writer.write("H\tVN:Z:1.0\n");
         for ( final Contig contig : contigs ) {
             final int contigId = idMap.get(contig);
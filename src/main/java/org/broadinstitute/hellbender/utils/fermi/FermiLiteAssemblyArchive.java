@@ -0,0 +1,420 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A file of many assemblies, each stored in the same binary layout that the native code produces (see
+ * FermiLiteAssembler.interpretAssemblyData), so that an assembly can be opened as a FermiLiteAssemblyView straight
+ * from the memory-mapped file, without parsing or copying anything.
+ * Each assembly has a unique key, and may also have an interval (contig, start, end) by which it can be found.
+ *
+ * The file is little-endian, and comprises:
+ *   a header:  the magic bytes "FMLA", the format version (4-byte int), and 8 reserved bytes
+ *   the assemblies, each aligned to 8 bytes
+ *   an index:  the number of entries (4-byte int), and for each entry its assembly's offset (8-byte int),
+ *     length and CRC32 (4-byte ints), the interval's start and end (4-byte ints, -1 if there's no interval),
+ *     and the key and the interval's contig name (each a 4-byte length, followed by that many bytes of UTF-8)
+ *   a footer:  the index's offset (8-byte int), length and CRC32 (4-byte ints), the version, and the magic bytes
+ *
+ * Write an archive with a FermiLiteAssemblyArchive.Writer, and read it with FermiLiteAssemblyArchive.open.
+ * Reading is thread-safe.
+ */
+public final class FermiLiteAssemblyArchive implements AutoCloseable {
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = "FMLA".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 16;
+    private static final int FOOTER_SIZE = 24;
+    private static final int ALIGNMENT = 8;
+    private static final int OVERLAP_SIZE = 8; // sizeof(fml_ovlp_t)
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mappedFile; // or null, if the file is too big to map all at once
+    private final Map<String, Entry> entries;
+    private final Map<String, ContigIndex> contigIndices;
+    private volatile boolean verifyChecksums = true;
+
+    private FermiLiteAssemblyArchive( final Path path, final FileChannel channel ) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        final long fileSize = channel.size();
+        if ( fileSize < HEADER_SIZE + FOOTER_SIZE ) throw error("too short");
+        mappedFile = fileSize <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize) : null;
+
+        final ByteBuffer header = map(0, HEADER_SIZE);
+        checkMagic(header, 0);
+        checkVersion(header.getInt(4));
+        final ByteBuffer footer = map(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+        checkMagic(footer, FOOTER_SIZE - MAGIC.length);
+        checkVersion(footer.getInt(16));
+        final long indexOffset = footer.getLong(0);
+        final int indexLength = footer.getInt(8);
+        if ( indexOffset < HEADER_SIZE || indexLength < 4 || indexOffset + indexLength > fileSize - FOOTER_SIZE ) {
+            throw error("bad index location");
+        }
+        final ByteBuffer index = map(indexOffset, indexLength);
+        if ( crc(index) != footer.getInt(12) ) throw error("index checksum mismatch");
+
+        final int nEntries = index.getInt();
+        entries = new LinkedHashMap<>((int)((nEntries*4L)/3) + 1);
+        final Map<String, List<Entry>> entriesByContig = new HashMap<>();
+        for ( int idx = 0; idx != nEntries; ++idx ) {
+            final long offset = index.getLong();
+            final int length = index.getInt();
+            final int checksum = index.getInt();
+            final int start = index.getInt();
+            final int end = index.getInt();
+            final String key = getString(index);
+            final String contig = getString(index);
+            if ( offset < HEADER_SIZE || length < 8 || offset + length > indexOffset ) throw error("bad entry " + key);
+            final Entry entry = new Entry(key, start < 0 ? null : contig, start, end, offset, length, checksum);
+            if ( entries.put(key, entry) != null ) throw error("duplicate key " + key);
+            if ( entry.hasInterval() ) entriesByContig.computeIfAbsent(contig, k -> new ArrayList<>()).add(entry);
+        }
+        contigIndices = new HashMap<>((int)((entriesByContig.size()*4L)/3) + 1);
+        for ( final Map.Entry<String, List<Entry>> contigEntries : entriesByContig.entrySet() ) {
+            contigIndices.put(contigEntries.getKey(), new ContigIndex(contigEntries.getValue()));
+        }
+    }
+
+    /** Opens an archive, and reads its index. */
+    public static FermiLiteAssemblyArchive open( final Path path ) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new FermiLiteAssemblyArchive(path, channel);
+        } catch ( final IOException | RuntimeException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Whether the CRC32 of each assembly is checked when it's opened (true by default). */
+    public boolean isVerifyChecksums() { return verifyChecksums; }
+    public void setVerifyChecksums( final boolean verifyChecksums ) { this.verifyChecksums = verifyChecksums; }
+
+    public int getNAssemblies() { return entries.size(); }
+
+    /** The entries in the order in which they were written. */
+    public List<Entry> getEntries() { return Collections.unmodifiableList(new ArrayList<>(entries.values())); }
+
+    /** The entry with the given key, or null if there isn't one. */
+    public Entry getEntry( final String key ) { return entries.get(key); }
+
+    /** The entries whose intervals overlap [start, end] on the given contig, in order of their start. */
+    public List<Entry> getEntries( final String contig, final int start, final int end ) {
+        final ContigIndex contigIndex = contigIndices.get(contig);
+        return contigIndex == null ? Collections.emptyList() : contigIndex.getOverlappers(start, end);
+    }
+
+    /**
+     * A view of an assembly, read directly from the mapped file.
+     * The view doesn't own its data:  closing it doesn't unmap anything.
+     */
+    public FermiLiteAssemblyView openView( final Entry entry ) throws IOException {
+        if ( entries.get(entry.getKey()) != entry ) {
+            throw new IllegalArgumentException("Entry " + entry.getKey() + " isn't from this archive.");
+        }
+        final ByteBuffer data = map(entry.offset, entry.length);
+        if ( verifyChecksums && crc(data) != entry.checksum ) throw error("checksum mismatch for " + entry.getKey());
+        return new FermiLiteAssemblyView(data, false, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** A view of the assembly with the given key.  See {@link #openView(Entry)}. */
+    public FermiLiteAssemblyView openView( final String key ) throws IOException {
+        final Entry entry = entries.get(key);
+        if ( entry == null ) throw new IllegalArgumentException("No assembly " + key + " in " + path);
+        return openView(entry);
+    }
+
+    /** Copy the assembly with the given key onto the heap. */
+    public FermiLiteAssembly readAssembly( final String key ) throws IOException {
+        try ( final FermiLiteAssemblyView view = openView(key) ) {
+            return view.toAssembly();
+        }
+    }
+
+    /** Closes the file.  Views that have already been opened remain usable. */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** the index entry for an assembly */
+    public static final class Entry {
+        private final String key;
+        private final String contig;
+        private final int start;
+        private final int end;
+        private final long offset;
+        private final int length;
+        private final int checksum;
+
+        Entry( final String key, final String contig, final int start, final int end,
+               final long offset, final int length, final int checksum ) {
+            this.key = key;
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public String getKey() { return key; }
+        public boolean hasInterval() { return contig != null; }
+        /** the interval's contig, or null if there's no interval */
+        public String getContig() { return contig; }
+        /** the interval's start, or -1 if there's no interval */
+        public int getStart() { return start; }
+        /** the interval's (inclusive) end, or -1 if there's no interval */
+        public int getEnd() { return end; }
+        /** size of the assembly data */
+        public int getNBytes() { return length; }
+    }
+
+    // the entries for one contig, sorted by start, with the greatest end of each entry and all those before it,
+    //  so that a query need only look at the entries between the first that could reach it and the last that starts
+    //  in time
+    private static final class ContigIndex {
+        private final Entry[] entries;
+        private final int[] starts;
+        private final int[] maxEnds;
+
+        ContigIndex( final List<Entry> contigEntries ) {
+            entries = contigEntries.toArray(new Entry[contigEntries.size()]);
+            Arrays.sort(entries, (entry1, entry2) -> Integer.compare(entry1.getStart(), entry2.getStart()));
+            starts = new int[entries.length];
+            maxEnds = new int[entries.length];
+            int maxEnd = Integer.MIN_VALUE;
+            for ( int idx = 0; idx != entries.length; ++idx ) {
+                starts[idx] = entries[idx].getStart();
+                maxEnd = Math.max(maxEnd, entries[idx].getEnd());
+                maxEnds[idx] = maxEnd;
+            }
+        }
+
+        List<Entry> getOverlappers( final int start, final int end ) {
+            final int firstIdx = firstIndexAbove(maxEnds, start - 1L);
+            final int endIdx = firstIndexAbove(starts, end);
+            if ( firstIdx >= endIdx ) return Collections.emptyList();
+            final List<Entry> result = new ArrayList<>(endIdx - firstIdx);
+            for ( int idx = firstIdx; idx != endIdx; ++idx ) {
+                if ( entries[idx].getEnd() >= start ) result.add(entries[idx]);
+            }
+            return result;
+        }
+
+        // the index of the first value greater than target in a non-decreasing array, or its length if there's none
+        private static int firstIndexAbove( final int[] values, final long target ) {
+            int lo = 0;
+            int hi = values.length;
+            while ( lo < hi ) {
+                final int mid = (lo + hi) >>> 1;
+                if ( values[mid] > target ) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo;
+        }
+    }
+
+    /** Writes an archive.  This class is not thread-safe. */
+    public static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+        private final CRC32 crc32 = new CRC32();
+        private long position;
+
+        /** Creates (or truncates) the file, and writes its header. */
+        public Writer( final Path path ) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putLong(0L).flip();
+            write(header);
+        }
+
+        /** Add an assembly with a unique key. */
+        public void add( final String key, final FermiLiteAssembly assembly ) throws IOException {
+            add(key, null, -1, -1, encode(assembly));
+        }
+
+        /** Add an assembly with a unique key, and the interval [start, end] that it covers. */
+        public void add( final String key, final String contig, final int start, final int end,
+                         final FermiLiteAssembly assembly ) throws IOException {
+            checkInterval(contig, start, end);
+            add(key, contig, start, end, encode(assembly));
+        }
+
+        /** Add an assembly view with a unique key.  On little-endian machines, its data is written as is. */
+        public void add( final String key, final FermiLiteAssemblyView view ) throws IOException {
+            add(key, null, -1, -1, encode(view));
+        }
+
+        /** Add an assembly view with a unique key, and the interval [start, end] that it covers. */
+        public void add( final String key, final String contig, final int start, final int end,
+                         final FermiLiteAssemblyView view ) throws IOException {
+            checkInterval(contig, start, end);
+            add(key, contig, start, end, encode(view));
+        }
+
+        /** Writes the index and footer, and closes the file. */
+        @Override
+        public void close() throws IOException {
+            if ( !channel.isOpen() ) return;
+            try {
+                int indexLength = 4;
+                final List<byte[][]> strings = new ArrayList<>(entries.size());
+                for ( final Entry entry : entries.values() ) {
+                    final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    final byte[] contig = entry.hasInterval() ?
+                            entry.getContig().getBytes(StandardCharsets.UTF_8) : new byte[0];
+                    strings.add(new byte[][]{key, contig});
+                    indexLength += 32 + key.length + contig.length;
+                }
+                final ByteBuffer index = ByteBuffer.allocate(indexLength).order(ByteOrder.LITTLE_ENDIAN);
+                index.putInt(entries.size());
+                int idx = 0;
+                for ( final Entry entry : entries.values() ) {
+                    final byte[][] entryStrings = strings.get(idx++);
+                    index.putLong(entry.offset).putInt(entry.length).putInt(entry.checksum)
+                            .putInt(entry.getStart()).putInt(entry.getEnd())
+                            .putInt(entryStrings[0].length).put(entryStrings[0])
+                            .putInt(entryStrings[1].length).put(entryStrings[1]);
+                }
+                index.flip();
+                final int indexChecksum = crc(index);
+                final long indexOffset = position;
+                write(index);
+                final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                footer.putLong(indexOffset).putInt(indexLength).putInt(indexChecksum).putInt(VERSION).put(MAGIC).flip();
+                write(footer);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void add( final String key, final String contig, final int start, final int end,
+                          final ByteBuffer data ) throws IOException {
+            if ( !channel.isOpen() ) throw new IllegalStateException("The archive has been closed.");
+            if ( entries.containsKey(key) ) throw new IllegalArgumentException("Duplicate key " + key);
+            final long offset = position;
+            final int length = data.remaining();
+            crc32.reset();
+            crc32.update(data.duplicate());
+            write(data);
+            final int padding = (int)(-position & (ALIGNMENT - 1));
+            if ( padding != 0 ) write(ByteBuffer.allocate(padding));
+            entries.put(key, new Entry(key, contig, start, end, offset, length, (int)crc32.getValue()));
+        }
+
+        private void write( final ByteBuffer buffer ) throws IOException {
+            while ( buffer.hasRemaining() ) {
+                position += channel.write(buffer);
+            }
+        }
+
+        private static void checkInterval( final String contig, final int start, final int end ) {
+            if ( contig == null ) throw new IllegalArgumentException("The interval must have a contig.");
+            if ( start < 0 || end < start ) {
+                throw new IllegalArgumentException("Bad interval " + contig + ":" + start + "-" + end);
+            }
+        }
+    }
+
+    /**
+     * Encode an assembly in the layout that the native code produces (see FermiLiteAssembler.interpretAssemblyData),
+     * little-endian.  An overlap length occupies 31 bits, so it must be at least -2^30, and less than 2^30.
+     */
+    static ByteBuffer encode( final FermiLiteAssembly assembly ) {
+        final FermiLiteAssemblyGraph graph = new FermiLiteAssemblyGraph(assembly);
+        final int nContigs = graph.getNContigs();
+        long poolOffset = 8L + 12L*nContigs + (long)OVERLAP_SIZE*graph.getNEdges();
+        long size = poolOffset;
+        for ( int id = 0; id != nContigs; ++id ) {
+            size += 2L*graph.getContigLength(id);
+        }
+        if ( size > Integer.MAX_VALUE ) throw new IllegalArgumentException("The assembly is too big to encode.");
+        final ByteBuffer data = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(nContigs).putInt((int)poolOffset);
+        for ( int id = 0; id != nContigs; ++id ) {
+            data.putInt(graph.getContigLength(id)).putInt(graph.getNSupportingReads(id)).putInt(graph.getNEdges(id));
+            final int end = graph.getEdgeEnd(id);
+            for ( int edge = graph.getEdgeStart(id); edge != end; ++edge ) {
+                final int overlapLen = graph.getEdgeOverlapLen(edge);
+                if ( overlapLen < -(1 << 30) || overlapLen >= (1 << 30) ) {
+                    throw new IllegalArgumentException("Overlap length " + overlapLen + " is out of range.");
+                }
+                // the sign bit is set when the 3' end overlaps (i.e., when the edge isn't RC)
+                data.putInt((overlapLen & Integer.MAX_VALUE) | (graph.isEdgeRC(edge) ? 0 : Integer.MIN_VALUE));
+                data.putInt(graph.getEdgeTarget(edge) | (graph.isEdgeTargetRC(edge) ? Integer.MIN_VALUE : 0));
+            }
+        }
+        for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+            data.put(contig.getSequence()).put(contig.getPerBaseCoverage());
+        }
+        data.flip();
+        return data;
+    }
+
+    // the view's data, little-endian
+    private static ByteBuffer encode( final FermiLiteAssemblyView view ) {
+        final ByteBuffer data = view.duplicateData();
+        if ( data.order() != ByteOrder.LITTLE_ENDIAN ) return encode(view.toAssembly());
+        data.position(0).limit(data.capacity());
+        return data;
+    }
+
+    // a little-endian buffer of the given part of the file
+    private ByteBuffer map( final long offset, final int length ) throws IOException {
+        final ByteBuffer buffer;
+        if ( mappedFile != null ) {
+            final ByteBuffer tmp = mappedFile.duplicate();
+            tmp.position((int)offset).limit((int)offset + length);
+            buffer = tmp.slice();
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int crc( final ByteBuffer buffer ) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(buffer.duplicate());
+        return (int)crc32.getValue();
+    }
+
+    private void checkMagic( final ByteBuffer buffer, final int offset ) throws IOException {
+        for ( int idx = 0; idx != MAGIC.length; ++idx ) {
+            if ( buffer.get(offset + idx) != MAGIC[idx] ) throw error("not an assembly archive");
+        }
+    }
+
+    private void checkVersion( final int version ) throws IOException {
+        if ( version != VERSION ) throw error("unsupported version " + version);
+    }
+
+    private static String getString( final ByteBuffer buffer ) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private IOException error( final String message ) {
+        return new IOException("Bad assembly archive " + path + ": " + message);
+    }
+}
@@ -0,0 +1,270 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache of assemblies, keyed on the content of the reads and the assembler's options.
+ * Assemblies are evicted, least-recently-used first, to keep their estimated total size under a limit.
+ * If several threads ask for the same assembly at once, only one of them runs the assembler, and the others
+ * wait for its result.
+ * Each request gets its own copy of the cached assembly, so you may modify it (e.g., with setConnections) without
+ * affecting the cache or anyone else.
+ * The key is a 128-bit MurmurHash3 of the marshalled reads, plus the options other than the thread count
+ * (which doesn't change the assembly):  the hash isn't cryptographically secure, but accidental collisions are
+ * vanishingly unlikely.
+ */
+public final class FermiLiteAssemblyCache {
+    private static final long CONTIG_OVERHEAD = 64L;     // rough size of a Contig, its arrays, and its List
+    private static final long CONNECTION_OVERHEAD = 32L; // rough size of a Connection and its List entry
+    private static final long MURMUR_C1 = 0x87C37B91114253D5L;
+    private static final long MURMUR_C2 = 0x4CF5AD432745937FL;
+
+    private final long maxBytes;
+    private long nBytes; // guarded by this
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, .75f, true); // guarded by this
+    private final ConcurrentHashMap<Key, CompletableFuture<FermiLiteAssembly>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nHits = new AtomicLong();
+    private final AtomicLong nMisses = new AtomicLong();
+    private final AtomicLong nCoalesced = new AtomicLong();
+    private final AtomicLong nEvictions = new AtomicLong();
+
+    public FermiLiteAssemblyCache( final long maxBytes ) {
+        if ( maxBytes < 0 ) throw new IllegalArgumentException("maxBytes must not be negative");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get an assembly of a collection of objects that implement BasesAndQuals, from the cache if possible.
+     */
+    public FermiLiteAssembly getAssembly( final FermiLiteAssembler assembler,
+                                          final Iterable<? extends FermiLiteAssembler.BasesAndQuals> basesAndQuals ) {
+        return getAssembly(assembler, basesAndQuals, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Get an assembly of a collection of objects that can be transformed (with a lambda) into BasesAndQuals,
+     * from the cache if possible.  If not, the assembler creates it, and it's added to the cache.
+     * Each thread must use its own assembler, as usual.  The assembler's getLastMetrics() describes the assembly
+     * if the assembler ran, and is null if it didn't.
+     */
+    public <T> FermiLiteAssembly getAssembly( final FermiLiteAssembler assembler, final Iterable<T> reads,
+                                              final Function<T,FermiLiteAssembler.BasesAndQuals> func ) {
+        final ByteBuffer readData = assembler.makeReadData(reads, func);
+        final Key key = new Key(readData, assembler.getOpts());
+        FermiLiteAssembly assembly = lookup(key);
+        if ( assembly != null ) {
+            nHits.incrementAndGet();
+            assembler.clearLastMetrics();
+            return copyOf(assembly);
+        }
+
+        final CompletableFuture<FermiLiteAssembly> future = new CompletableFuture<>();
+        final CompletableFuture<FermiLiteAssembly> otherFuture = inFlight.putIfAbsent(key, future);
+        if ( otherFuture != null ) {
+            nCoalesced.incrementAndGet();
+            assembler.clearLastMetrics();
+            try {
+                return copyOf(otherFuture.join());
+            } catch ( final CompletionException ce ) {
+                final Throwable cause = ce.getCause();
+                if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+                if ( cause instanceof Error ) throw (Error)cause;
+                throw ce;
+            }
+        }
+        try {
+            // someone else may have finished this assembly between our lookup and our putIfAbsent
+            assembly = lookup(key);
+            if ( assembly != null ) {
+                nHits.incrementAndGet();
+                assembler.clearLastMetrics();
+            } else {
+                nMisses.incrementAndGet();
+                assembly = assembler.assembleReadData(readData);
+                store(key, assembly);
+            }
+            future.complete(assembly);
+            return copyOf(assembly);
+        } catch ( final RuntimeException | Error throwable ) {
+            future.completeExceptionally(throwable);
+            throw throwable;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+    public synchronized long getNBytes() { return nBytes; }
+    public synchronized int getNEntries() { return entries.size(); }
+    /** number of requests satisfied from the cache */
+    public long getNHits() { return nHits.get(); }
+    /** number of requests that ran the assembler */
+    public long getNMisses() { return nMisses.get(); }
+    /** number of requests that waited for some other thread's assembly of the same reads */
+    public long getNCoalesced() { return nCoalesced.get(); }
+    public long getNEvictions() { return nEvictions.get(); }
+
+    public synchronized void clear() {
+        entries.clear();
+        nBytes = 0;
+    }
+
+    /** A rough estimate of the heap occupied by an assembly. */
+    public static long estimateSize( final FermiLiteAssembly assembly ) {
+        long size = CONTIG_OVERHEAD;
+        for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+            size += CONTIG_OVERHEAD + 2L*contig.getSequence().length +
+                    CONNECTION_OVERHEAD*contig.getConnections().size();
+        }
+        return size;
+    }
+
+    // A copy of an assembly that shares nothing with it, so that nobody can modify a cached assembly.
+    private static FermiLiteAssembly copyOf( final FermiLiteAssembly assembly ) {
+        final List<FermiLiteAssembly.Contig> contigs = assembly.getContigs();
+        final Map<FermiLiteAssembly.Contig, FermiLiteAssembly.Contig> copies = new IdentityHashMap<>(contigs.size());
+        final List<FermiLiteAssembly.Contig> contigCopies = new ArrayList<>(contigs.size());
+        for ( final FermiLiteAssembly.Contig contig : contigs ) {
+            final FermiLiteAssembly.Contig copy = new FermiLiteAssembly.Contig(contig.getSequence().clone(),
+                    contig.getPerBaseCoverage().clone(), contig.getNSupportingReads());
+            copies.put(contig, copy);
+            contigCopies.add(copy);
+        }
+        for ( final FermiLiteAssembly.Contig contig : contigs ) {
+            final List<FermiLiteAssembly.Connection> connections = new ArrayList<>(contig.getConnections().size());
+            for ( final FermiLiteAssembly.Connection conn : contig.getConnections() ) {
+                connections.add(new FermiLiteAssembly.Connection(copies.get(conn.getTarget()), conn.getOverlapLen(),
+                                                                 conn.isRC(), conn.isTargetRC()));
+            }
+            copies.get(contig).setConnections(connections);
+        }
+        return new FermiLiteAssembly(contigCopies);
+    }
+
+    private synchronized FermiLiteAssembly lookup( final Key key ) {
+        final Entry entry = entries.get(key);
+        return entry == null ? null : entry.assembly;
+    }
+
+    private synchronized void store( final Key key, final FermiLiteAssembly assembly ) {
+        final long size = estimateSize(assembly);
+        if ( size > maxBytes ) return;
+        final Entry oldEntry = entries.put(key, new Entry(assembly, size));
+        if ( oldEntry != null ) nBytes -= oldEntry.size;
+        nBytes += size;
+        final Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator();
+        while ( nBytes > maxBytes && itr.hasNext() ) {
+            final Map.Entry<Key, Entry> eldest = itr.next();
+            if ( eldest.getKey().equals(key) ) continue;
+            nBytes -= eldest.getValue().size;
+            itr.remove();
+            nEvictions.incrementAndGet();
+        }
+    }
+
+    /** MurmurHash3 (x64, 128-bit, seed 0) of a buffer's remaining bytes, as two longs. */
+    static long[] murmurHash3( final ByteBuffer data ) {
+        final ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int start = buf.position();
+        final int length = buf.remaining();
+        long h1 = 0L;
+        long h2 = 0L;
+        int idx = start;
+        for ( final int blockEnd = start + (length & ~15); idx != blockEnd; idx += 16 ) {
+            h1 ^= mixK1(buf.getLong(idx));
+            h1 = (Long.rotateLeft(h1, 27) + h2) * 5L + 0x52DCE729L;
+            h2 ^= mixK2(buf.getLong(idx + 8));
+            h2 = (Long.rotateLeft(h2, 31) + h1) * 5L + 0x38495AB5L;
+        }
+        final int tailLen = length & 15;
+        long k1 = 0L;
+        long k2 = 0L;
+        for ( int tailIdx = 0; tailIdx != tailLen; ++tailIdx ) {
+            final long value = buf.get(idx + tailIdx) & 0xFFL;
+            if ( tailIdx < 8 ) k1 ^= value << (8 * tailIdx);
+            else k2 ^= value << (8 * (tailIdx - 8));
+        }
+        if ( tailLen > 8 ) h2 ^= mixK2(k2);
+        if ( tailLen > 0 ) h1 ^= mixK1(k1);
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{ h1, h2 };
+    }
+
+    private static long mixK1( final long k1 ) { return Long.rotateLeft(k1 * MURMUR_C1, 31) * MURMUR_C2; }
+    private static long mixK2( final long k2 ) { return Long.rotateLeft(k2 * MURMUR_C2, 33) * MURMUR_C1; }
+
+    // MurmurHash3's 64-bit finalizer
+    private static long fmix( long hash ) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Entry {
+        final FermiLiteAssembly assembly;
+        final long size;
+
+        Entry( final FermiLiteAssembly assembly, final long size ) {
+            this.assembly = assembly;
+            this.size = size;
+        }
+    }
+
+    // a MurmurHash3 (x64, 128-bit) hash and the length of the read data, and the options that affect the result
+    private static final class Key {
+        private final long hash1;
+        private final long hash2;
+        private final int length;
+        private final int[] options;
+
+        Key( final ByteBuffer readData, final ByteBuffer opts ) {
+            final long[] hash = murmurHash3(readData);
+            hash1 = hash[0];
+            hash2 = hash[1];
+            length = readData.remaining();
+
+            // the options are compared exactly, except for the thread count (the first int), which doesn't
+            // change the assembly
+            final ByteBuffer options = opts.duplicate().order(ByteOrder.nativeOrder());
+            this.options = new int[options.capacity() / 4];
+            for ( int optIdx = 1; optIdx < this.options.length; ++optIdx ) {
+                this.options[optIdx] = options.getInt(4 * optIdx);
+            }
+        }
+
+        @Override
+        public boolean equals( final Object obj ) {
+            if ( this == obj ) return true;
+            if ( !(obj instanceof Key) ) return false;
+            final Key that = (Key)obj;
+            return hash1 == that.hash1 && hash2 == that.hash2 && length == that.length &&
+                    Arrays.equals(options, that.options);
+        }
+
+        @Override
+        public int hashCode() { return (int)(hash1 ^ (hash1 >>> 32)) * 31 + Arrays.hashCode(options); }
+    }
+}
@@ -0,0 +1,170 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, compact representation of the contig graph of an assembly.
+ * Contigs are identified by their index in the assembly, and the edges of all contigs are stored in
+ * compressed-sparse-row form:  the edges of contig id are numbered from getEdgeStart(id) up to (but excluding)
+ * getEdgeEnd(id), and the properties of each edge are fetched by edge number.
+ * Nothing is allocated when walking the graph.
+ */
+public final class FermiLiteAssemblyGraph {
+    private static final int IS_RC = 2;
+    private static final int IS_TARGET_RC = 1;
+
+    private final int[] contigLengths;
+    private final int[] nSupportingReads;
+    private final int[] edgeStarts;  // edges for contig id are at [edgeStarts[id], edgeStarts[id+1])
+    private final int[] edgeTargets; // target id << 2 | IS_RC | IS_TARGET_RC
+    private final int[] overlapLens;
+
+    /** Interface for visiting a contig's edges without allocating anything. */
+    @FunctionalInterface
+    public interface EdgeVisitor {
+        void visit( int edge, int targetId, int overlapLen, boolean isRC, boolean isTargetRC );
+    }
+
+    public FermiLiteAssemblyGraph( final FermiLiteAssembly assembly ) {
+        final List<FermiLiteAssembly.Contig> contigs = assembly.getContigs();
+        final int nContigs = contigs.size();
+        final Map<FermiLiteAssembly.Contig, Integer> idMap = assembly.makeContigIdMap();
+        int nEdges = 0;
+        for ( int id = 0; id != nContigs; ++id ) {
+            nEdges += contigs.get(id).getConnections().size();
+        }
+        contigLengths = new int[nContigs];
+        nSupportingReads = new int[nContigs];
+        edgeStarts = new int[nContigs + 1];
+        edgeTargets = new int[nEdges];
+        overlapLens = new int[nEdges];
+        int edge = 0;
+        for ( int id = 0; id != nContigs; ++id ) {
+            final FermiLiteAssembly.Contig contig = contigs.get(id);
+            contigLengths[id] = contig.getSequence().length;
+            nSupportingReads[id] = contig.getNSupportingReads();
+            edgeStarts[id] = edge;
+            for ( final FermiLiteAssembly.Connection connection : contig.getConnections() ) {
+                final Integer targetId = idMap.get(connection.getTarget());
+                if ( targetId == null ) {
+                    throw new IllegalArgumentException("Contig " + id + " is connected to a contig that isn't in the assembly.");
+                }
+                edgeTargets[edge] = packTarget(targetId, connection.isRC(), connection.isTargetRC());
+                overlapLens[edge] = connection.getOverlapLen();
+                edge += 1;
+            }
+        }
+        edgeStarts[nContigs] = edge;
+    }
+
+    public FermiLiteAssemblyGraph( final FermiLiteAssemblyView view ) {
+        final int nContigs = view.getNContigs();
+        final int nEdges = Math.toIntExact(view.getNEdges());
+        contigLengths = new int[nContigs];
+        nSupportingReads = new int[nContigs];
+        edgeStarts = new int[nContigs + 1];
+        edgeTargets = new int[nEdges];
+        overlapLens = new int[nEdges];
+        int edge = 0;
+        for ( int id = 0; id != nContigs; ++id ) {
+            final FermiLiteAssemblyView.Contig contig = view.getContig(id);
+            contigLengths[id] = contig.getLength();
+            nSupportingReads[id] = contig.getNSupportingReads();
+            edgeStarts[id] = edge;
+            final int nConnections = contig.getNConnections();
+            for ( int connIdx = 0; connIdx != nConnections; ++connIdx ) {
+                edgeTargets[edge] = packTarget(contig.getConnectionTarget(connIdx),
+                                                contig.isConnectionRC(connIdx),
+                                                contig.isConnectionTargetRC(connIdx));
+                overlapLens[edge] = contig.getConnectionOverlapLen(connIdx);
+                edge += 1;
+            }
+        }
+        edgeStarts[nContigs] = edge;
+    }
+
+    public int getNContigs() { return contigLengths.length; }
+    public int getNEdges() { return edgeTargets.length; }
+    public int getContigLength( final int id ) { return contigLengths[id]; }
+    public int getNSupportingReads( final int id ) { return nSupportingReads[id]; }
+
+    /** number of the first edge of contig id */
+    public int getEdgeStart( final int id ) { return edgeStarts[id]; }
+    /** one past the number of the last edge of contig id */
+    public int getEdgeEnd( final int id ) { return edgeStarts[id + 1]; }
+    public int getNEdges( final int id ) { return edgeStarts[id + 1] - edgeStarts[id]; }
+
+    /** id of the contig that overlaps the one that possesses this edge */
+    public int getEdgeTarget( final int edge ) { return edgeTargets[edge] >>> 2; }
+    /** bases in common -- negative overlap lengths are legal, and represent gaps */
+    public int getEdgeOverlapLen( final int edge ) { return overlapLens[edge]; }
+    /** if target is a predecessor (i.e., upstream of the 5' end of the contig that possesses this edge) */
+    public boolean isEdgeRC( final int edge ) { return (edgeTargets[edge] & IS_RC) != 0; }
+    /** if edge is to RC of target contig */
+    public boolean isEdgeTargetRC( final int edge ) { return (edgeTargets[edge] & IS_TARGET_RC) != 0; }
+
+    /** calls the visitor for each of the edges of contig id */
+    public void forEachEdge( final int id, final EdgeVisitor visitor ) {
+        final int end = edgeStarts[id + 1];
+        for ( int edge = edgeStarts[id]; edge != end; ++edge ) {
+            final int target = edgeTargets[edge];
+            visitor.visit(edge, target >>> 2, overlapLens[edge], (target & IS_RC) != 0, (target & IS_TARGET_RC) != 0);
+        }
+    }
+
+    /** the only edge upstream of the 5' end of contig id, or -1 if there are none or many */
+    public int getSolePredecessor( final int id ) { return getSingletonEdge(id, true); }
+
+    /** the only edge downstream of the 3' end of contig id, or -1 if there are none or many */
+    public int getSoleSuccessor( final int id ) { return getSingletonEdge(id, false); }
+
+    public int getSingletonEdge( final int id, final boolean isRC ) {
+        int singleton = -1;
+        final int end = edgeStarts[id + 1];
+        for ( int edge = edgeStarts[id]; edge != end; ++edge ) {
+            if ( isEdgeRC(edge) == isRC ) {
+                if ( singleton != -1 ) return -1; // found multiple edges
+                singleton = edge;
+            }
+        }
+        return singleton;
+    }
+
+    /**
+     * Finds the same overlap, described from the point of view of the target contig
+     * (i.e., the equivalent of Connection.rcConnection).  Returns -1 if the target doesn't list it.
+     */
+    public int getRCEdge( final int edge ) {
+        final int targetId = getEdgeTarget(edge);
+        final int end = edgeStarts[targetId + 1];
+        final int sourceId = findSource(edge);
+        final int rcTarget = packTarget(sourceId, !isEdgeTargetRC(edge), !isEdgeRC(edge));
+        for ( int rcEdge = edgeStarts[targetId]; rcEdge != end; ++rcEdge ) {
+            if ( edgeTargets[rcEdge] == rcTarget && overlapLens[rcEdge] == overlapLens[edge] ) return rcEdge;
+        }
+        return -1;
+    }
+
+    /** id of the contig that possesses an edge */
+    public int getEdgeSource( final int edge ) { return findSource(edge); }
+
+    private int findSource( final int edge ) {
+        if ( edge < 0 || edge >= edgeTargets.length ) {
+            throw new IndexOutOfBoundsException("No edge " + edge + " in a graph of " + edgeTargets.length);
+        }
+        // binary search for the last contig whose first edge is <= edge
+        int lo = 0;
+        int hi = contigLengths.length - 1;
+        while ( lo < hi ) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if ( edgeStarts[mid] <= edge ) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private static int packTarget( final int targetId, final boolean isRC, final boolean isTargetRC ) {
+        return targetId << 2 | (isRC ? IS_RC : 0) | (isTargetRC ? IS_TARGET_RC : 0);
+    }
+}
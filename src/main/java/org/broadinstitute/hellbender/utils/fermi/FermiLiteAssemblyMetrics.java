@@ -0,0 +1,196 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What it cost to do an assembly (or a batch of them):  how much input there was, where the time went,
+ * and how much output there was.  Times are in nanoseconds.
+ * FermiLiteAssembler.getLastMetrics() describes its most recent assembly, and getProcessTotals() sums the metrics
+ * of every assembly done by this process.
+ * For a batch of assemblies the native stage timings are summed over the assemblies, so they can add up to more
+ * than the elapsed native time when there are several worker threads.
+ */
+public final class FermiLiteAssemblyMetrics {
+    /** The stages of the native code.  (The order must agree with the C code.) */
+    public enum Stage {
+        /** copying the reads out of the read buffer */
+        PARSE,
+        /** error correction */
+        CORRECT,
+        /** filtering reads with unique k-mers */
+        FILTER,
+        /** building the FM-index */
+        INDEX,
+        /** building the overlap graph */
+        GRAPH,
+        /** cleaning the graph */
+        CLEAN,
+        /** generating unitigs */
+        UNITIGS,
+        /** marshalling the unitigs into the result buffer */
+        RESULT
+    }
+
+    private static final Totals totals = new Totals();
+
+    private final long nAssemblies;
+    private final long nReads;
+    private final long nBases;
+    private final long marshalNanos;
+    private final long nativeNanos;
+    private final long[] stageNanos;
+    private final long nContigs;
+    private final long nEdges;
+    private final long resultBytes;
+    private final long decodeNanos;
+
+    public FermiLiteAssemblyMetrics( final long nAssemblies, final long nReads, final long nBases,
+                                     final long marshalNanos, final long nativeNanos, final long[] stageNanos,
+                                     final long nContigs, final long nEdges, final long resultBytes,
+                                     final long decodeNanos ) {
+        if ( stageNanos.length != Stage.values().length ) {
+            throw new IllegalArgumentException("There must be a timing for each of the " +
+                    Stage.values().length + " stages.");
+        }
+        this.nAssemblies = nAssemblies;
+        this.nReads = nReads;
+        this.nBases = nBases;
+        this.marshalNanos = marshalNanos;
+        this.nativeNanos = nativeNanos;
+        this.stageNanos = stageNanos.clone();
+        this.nContigs = nContigs;
+        this.nEdges = nEdges;
+        this.resultBytes = resultBytes;
+        this.decodeNanos = decodeNanos;
+    }
+
+    /** number of assemblies described by these metrics */
+    public long getNAssemblies() { return nAssemblies; }
+    public long getNReads() { return nReads; }
+    public long getNBases() { return nBases; }
+    /** time spent copying the reads into the native read buffer */
+    public long getMarshalNanos() { return marshalNanos; }
+    /** elapsed time spent in the native code, as seen from Java */
+    public long getNativeNanos() { return nativeNanos; }
+    /** time spent in one stage of the native code, as timed by the native code itself */
+    public long getStageNanos( final Stage stage ) { return stageNanos[stage.ordinal()]; }
+    public long getNContigs() { return nContigs; }
+    /** number of connections between contigs (each edge and its reverse complement are counted separately) */
+    public long getNEdges() { return nEdges; }
+    /** size of the native buffer that held the assembly */
+    public long getResultBytes() { return resultBytes; }
+    /** time spent decoding the native buffer that held the assembly */
+    public long getDecodeNanos() { return decodeNanos; }
+    /** total time, from marshalling the reads to decoding the assembly */
+    public long getTotalNanos() { return marshalNanos + nativeNanos + decodeNanos; }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("assemblies=").append(nAssemblies)
+                .append(" reads=").append(nReads)
+                .append(" bases=").append(nBases)
+                .append(" marshalNanos=").append(marshalNanos)
+                .append(" nativeNanos=").append(nativeNanos);
+        for ( final Stage stage : Stage.values() ) {
+            sb.append(' ').append(stage.name().toLowerCase()).append("Nanos=").append(stageNanos[stage.ordinal()]);
+        }
+        sb.append(" contigs=").append(nContigs)
+                .append(" edges=").append(nEdges)
+                .append(" resultBytes=").append(resultBytes)
+                .append(" decodeNanos=").append(decodeNanos);
+        return sb.toString();
+    }
+
+    /** The sum of the metrics for every assembly done by this process so far. */
+    public static FermiLiteAssemblyMetrics getProcessTotals() {
+        return totals.snapshot();
+    }
+
+    // Adds some metrics into the process totals, and reports them to JFR (if we're running with JFR).
+    static void record( final FermiLiteAssemblyMetrics metrics, final Object event ) {
+        totals.add(metrics);
+        if ( event != null ) Totals.EVENT_REPORTER.finish(event, metrics);
+    }
+
+    // Starts timing a JFR event, if JFR is available.  Returns null if it isn't.
+    static Object beginEvent() {
+        final EventReporter reporter = Totals.EVENT_REPORTER;
+        return reporter != null ? reporter.start() : null;
+    }
+
+    /**
+     * How this class reaches FermiLiteAssemblyEvent, which extends jdk.jfr.Event, and so lives in the optional
+     * jfr part of the jar (see build.gradle) rather than in this source set.
+     */
+    interface EventReporter {
+        Object start();
+        void finish( Object event, FermiLiteAssemblyMetrics metrics );
+    }
+
+    private static final class Totals {
+        // the jdk.jfr API isn't present in older Java 8 runtimes, and the event isn't in jars built without it
+        static final boolean JFR_AVAILABLE = isJFRAvailable();
+        static final EventReporter EVENT_REPORTER = JFR_AVAILABLE ? loadEventReporter() : null;
+
+        private final LongAdder nAssemblies = new LongAdder();
+        private final LongAdder nReads = new LongAdder();
+        private final LongAdder nBases = new LongAdder();
+        private final LongAdder marshalNanos = new LongAdder();
+        private final LongAdder nativeNanos = new LongAdder();
+        private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+        private final LongAdder nContigs = new LongAdder();
+        private final LongAdder nEdges = new LongAdder();
+        private final LongAdder resultBytes = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+
+        Totals() {
+            for ( int idx = 0; idx != stageNanos.length; ++idx ) {
+                stageNanos[idx] = new LongAdder();
+            }
+        }
+
+        void add( final FermiLiteAssemblyMetrics metrics ) {
+            nAssemblies.add(metrics.nAssemblies);
+            nReads.add(metrics.nReads);
+            nBases.add(metrics.nBases);
+            marshalNanos.add(metrics.marshalNanos);
+            nativeNanos.add(metrics.nativeNanos);
+            for ( int idx = 0; idx != stageNanos.length; ++idx ) {
+                stageNanos[idx].add(metrics.stageNanos[idx]);
+            }
+            nContigs.add(metrics.nContigs);
+            nEdges.add(metrics.nEdges);
+            resultBytes.add(metrics.resultBytes);
+            decodeNanos.add(metrics.decodeNanos);
+        }
+
+        // not an atomic snapshot:  an assembly that's being recorded concurrently may be partially included
+        FermiLiteAssemblyMetrics snapshot() {
+            final long[] stageSums = new long[stageNanos.length];
+            for ( int idx = 0; idx != stageNanos.length; ++idx ) {
+                stageSums[idx] = stageNanos[idx].sum();
+            }
+            return new FermiLiteAssemblyMetrics(nAssemblies.sum(), nReads.sum(), nBases.sum(), marshalNanos.sum(),
+                    nativeNanos.sum(), stageSums, nContigs.sum(), nEdges.sum(), resultBytes.sum(), decodeNanos.sum());
+        }
+
+        private static boolean isJFRAvailable() {
+            try {
+                Class.forName("jdk.jfr.Event", false, FermiLiteAssemblyMetrics.class.getClassLoader());
+                return true;
+            } catch ( final ClassNotFoundException | LinkageError e ) {
+                return false;
+            }
+        }
+
+        private static EventReporter loadEventReporter() {
+            try {
+                return (EventReporter)Class.forName("org.broadinstitute.hellbender.utils.fermi.FermiLiteAssemblyEvent$Reporter")
+                        .getDeclaredConstructor().newInstance();
+            } catch ( final ReflectiveOperationException | LinkageError e ) {
+                return null;
+            }
+        }
+    }
+}
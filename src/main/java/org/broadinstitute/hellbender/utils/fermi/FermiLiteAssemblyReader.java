@@ -0,0 +1,224 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds an assembly from the GFA written by FermiLiteAssembly.writeGFA or FermiLiteAssemblyWriter.writeGFA.
+ * The text is streamed through a reusable buffer.  Segments are numbered in the order they appear, and
+ * each link line produces a connection on both of the contigs it joins, just as fermi-lite reports them.
+ * Per-base coverage is taken from a segment's CV:Z tag, if present, and is otherwise zero.
+ * The number of supporting reads is taken from the RC:i tag, if present, and is otherwise zero.
+ */
+public final class FermiLiteAssemblyReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte ZERO_COVERAGE = 33;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] line = new byte[256];
+    private int lineLen;
+    private int lineNo;
+
+    // state for the assembly being read
+    private final Map<String, Integer> idMap = new HashMap<>();
+    private final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>();
+    private final List<int[]> links = new ArrayList<>(); // sourceId, isRC, targetId, isTargetRC, overlapLen
+
+    public FermiLiteAssemblyReader( final ReadableByteChannel channel ) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    public FermiLiteAssemblyReader( final InputStream inputStream ) {
+        this(Channels.newChannel(inputStream));
+    }
+
+    /** Reads everything remaining in the channel as a single assembly.  The channel is not closed. */
+    public FermiLiteAssembly readGFA() throws IOException {
+        idMap.clear();
+        contigs.clear();
+        links.clear();
+        final List<String[]> pendingLinks = new ArrayList<>();
+        while ( readLine() ) {
+            if ( lineLen == 0 ) continue;
+            switch ( line[0] ) {
+                case 'S': parseSegment(); break;
+                case 'L': pendingLinks.add(fields(6)); break;
+                default: break; // ignore headers, comments, and anything else we don't understand
+            }
+        }
+        for ( final String[] fields : pendingLinks ) {
+            parseLink(fields);
+        }
+        final List<List<FermiLiteAssembly.Connection>> connections = new ArrayList<>(contigs.size());
+        for ( int idx = 0; idx != contigs.size(); ++idx ) {
+            connections.add(new ArrayList<>());
+        }
+        for ( final int[] link : links ) {
+            final FermiLiteAssembly.Contig source = contigs.get(link[0]);
+            final FermiLiteAssembly.Contig target = contigs.get(link[2]);
+            final FermiLiteAssembly.Connection connection =
+                    new FermiLiteAssembly.Connection(target, link[4], link[1] != 0, link[3] != 0);
+            connections.get(link[0]).add(connection);
+            // a contig that overlaps itself lists each of its overlaps, and each is written separately
+            if ( source != target ) connections.get(link[2]).add(connection.rcConnection(source));
+        }
+        for ( int idx = 0; idx != contigs.size(); ++idx ) {
+            contigs.get(idx).setConnections(connections.get(idx));
+        }
+        final FermiLiteAssembly assembly = new FermiLiteAssembly(new ArrayList<>(contigs));
+        idMap.clear();
+        contigs.clear();
+        links.clear();
+        return assembly;
+    }
+
+    private void parseSegment() {
+        // S <name> <sequence> [tags...]
+        int start = 2;
+        int end = nextTab(start);
+        final String name = new String(line, start, end - start, StandardCharsets.US_ASCII);
+        start = end + 1;
+        end = nextTab(start);
+        if ( start > lineLen ) throw error("segment has no sequence");
+        final byte[] sequence = Arrays.copyOfRange(line, start, end);
+        byte[] coverage = null;
+        int nSupportingReads = 0;
+        while ( end < lineLen ) {
+            start = end + 1;
+            end = nextTab(start);
+            if ( end - start >= 5 && line[start + 2] == ':' && line[start + 4] == ':' ) {
+                if ( line[start] == 'C' && line[start + 1] == 'V' && line[start + 3] == 'Z' ) {
+                    coverage = Arrays.copyOfRange(line, start + 5, end);
+                } else if ( line[start] == 'R' && line[start + 1] == 'C' && line[start + 3] == 'i' ) {
+                    nSupportingReads = parseInt(start + 5, end);
+                } else if ( line[start] == 'L' && line[start + 1] == 'N' && line[start + 3] == 'i' ) {
+                    if ( parseInt(start + 5, end) != sequence.length ) throw error("LN tag disagrees with sequence length");
+                }
+            }
+        }
+        if ( coverage == null ) {
+            coverage = new byte[sequence.length];
+            Arrays.fill(coverage, ZERO_COVERAGE);
+        } else if ( coverage.length != sequence.length ) {
+            throw error("CV tag disagrees with sequence length");
+        }
+        if ( idMap.put(name, contigs.size()) != null ) throw error("duplicate segment name " + name);
+        contigs.add(new FermiLiteAssembly.Contig(sequence, coverage, nSupportingReads));
+    }
+
+    private void parseLink( final String[] fields ) {
+        // L <source> <+|-> <target> <+|-> <overlap>
+        final int[] link = new int[5];
+        link[0] = lookupId(fields[1]);
+        link[1] = parseOrientation(fields[2]);
+        link[2] = lookupId(fields[3]);
+        link[3] = parseOrientation(fields[4]);
+        final String overlap = fields[5];
+        if ( "*".equals(overlap) || overlap.isEmpty() ) {
+            link[4] = 0;
+        } else {
+            final char op = overlap.charAt(overlap.length() - 1);
+            final int len;
+            try {
+                len = Integer.parseInt(overlap.substring(0, overlap.length() - 1));
+            } catch ( final NumberFormatException nfe ) {
+                throw new IllegalArgumentException("Unable to parse GFA overlap " + overlap, nfe);
+            }
+            if ( op == 'M' ) link[4] = len;
+            else if ( op == 'H' ) link[4] = -len;
+            else throw new IllegalArgumentException("Unable to parse GFA overlap " + overlap);
+        }
+        links.add(link);
+    }
+
+    private int lookupId( final String name ) {
+        final Integer id = idMap.get(name);
+        if ( id == null ) throw new IllegalArgumentException("GFA link refers to unknown segment " + name);
+        return id;
+    }
+
+    private static int parseOrientation( final String orientation ) {
+        if ( "+".equals(orientation) ) return 0;
+        if ( "-".equals(orientation) ) return 1;
+        throw new IllegalArgumentException("Unable to parse GFA orientation " + orientation);
+    }
+
+    // splits the current line into (at least) nFields tab-separated Strings
+    private String[] fields( final int nFields ) {
+        final String[] result = new String[nFields];
+        int start = 0;
+        for ( int idx = 0; idx != nFields; ++idx ) {
+            if ( start > lineLen ) throw error("expected " + nFields + " fields");
+            final int end = nextTab(start);
+            result[idx] = new String(line, start, end - start, StandardCharsets.US_ASCII);
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private int nextTab( int idx ) {
+        while ( idx < lineLen && line[idx] != '\t' ) ++idx;
+        return idx;
+    }
+
+    private int parseInt( final int start, final int end ) {
+        if ( start == end ) throw error("empty integer tag");
+        int value = 0;
+        for ( int idx = start; idx != end; ++idx ) {
+            final int digit = line[idx] - '0';
+            if ( digit < 0 || digit > 9 ) throw error("bad integer tag");
+            value = 10*value + digit;
+        }
+        return value;
+    }
+
+    private IllegalArgumentException error( final String message ) {
+        return new IllegalArgumentException("Bad GFA at line " + lineNo + ": " + message);
+    }
+
+    // reads the next line (without its terminating newline) into line.  returns false at EOF.
+    private boolean readLine() throws IOException {
+        lineLen = 0;
+        boolean sawData = false;
+        while ( true ) {
+            if ( !buffer.hasRemaining() ) {
+                buffer.clear();
+                final int nRead = channel.read(buffer);
+                buffer.flip();
+                if ( nRead < 0 ) {
+                    if ( sawData ) lineNo += 1;
+                    return sawData;
+                }
+                continue;
+            }
+            sawData = true;
+            final byte[] bytes = buffer.array();
+            final int start = buffer.position();
+            final int limit = buffer.limit();
+            int end = start;
+            while ( end < limit && bytes[end] != '\n' ) ++end;
+            final int len = end - start;
+            if ( lineLen + len > line.length ) line = Arrays.copyOf(line, Math.max(2*line.length, lineLen + len));
+            System.arraycopy(bytes, start, line, lineLen, len);
+            lineLen += len;
+            if ( end < limit ) {
+                buffer.position(end + 1);
+                if ( lineLen > 0 && line[lineLen - 1] == '\r' ) lineLen -= 1;
+                lineNo += 1;
+                return true;
+            }
+            buffer.position(end);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.util.function.Function;
+
+/**
+ * Accumulates reads in native memory, a chunk at a time, for a single assembly.
+ * Get one from FermiLiteAssembler.openSession.  Each call to addReads copies a chunk of reads into native memory
+ * (through the assembler's read buffer, which only has to be big enough for one chunk), so a streaming source of
+ * reads never has to be collected into a Java list first.  Then call assemble.
+ * assemble consumes the reads, leaving the session empty and ready to accumulate reads for another assembly.
+ * The session uses its assembler's options and read buffer, so it's no more thread-safe than the assembler is.
+ * You must close the session to free any reads that haven't been assembled.
+ */
+public final class FermiLiteAssemblySession implements AutoCloseable {
+    private final FermiLiteAssembler assembler;
+    private long handle;
+    private long nReads;
+    private long nBases;
+    private long marshalNanos;
+    private long nNativeBytes; // roughly, the size of the native read set, as counted in FermiLiteMemoryBudget
+
+    FermiLiteAssemblySession( final FermiLiteAssembler assembler, final long handle ) {
+        this.assembler = assembler;
+        this.handle = handle;
+    }
+
+    public boolean isOpen() { return handle != 0; }
+    /** number of reads added since the session was opened, or since the last assembly */
+    public long getNReads() { return nReads; }
+    /** number of bases added since the session was opened, or since the last assembly */
+    public long getNBases() { return nBases; }
+
+    /** Add a chunk of reads that implement BasesAndQuals. */
+    public void addReads( final Iterable<? extends FermiLiteAssembler.BasesAndQuals> basesAndQuals ) {
+        addReads(basesAndQuals, bAndQ -> bAndQ);
+    }
+
+    /** Add a chunk of reads that can be transformed (with a lambda) into BasesAndQuals. */
+    public <T> void addReads( final Iterable<T> reads, final Function<T,FermiLiteAssembler.BasesAndQuals> func ) {
+        assembler.addReads(this, reads, func);
+    }
+
+    /** Add a chunk of PackedReads. */
+    public void addPackedReads( final Iterable<? extends FermiLiteAssembler.PackedRead> packedReads ) {
+        addPackedReads(packedReads, packedRead -> packedRead);
+    }
+
+    /** Add a chunk of reads that can be transformed (with a lambda) into PackedReads. */
+    public <T> void addPackedReads( final Iterable<T> reads, final Function<T,FermiLiteAssembler.PackedRead> func ) {
+        assembler.addPackedReads(this, reads, func);
+    }
+
+    /** Assemble all the reads that have been added.  The session is left empty. */
+    public FermiLiteAssembly assemble() {
+        return assembler.assemble(this);
+    }
+
+    @Override
+    public void close() {
+        if ( handle != 0 ) {
+            FermiLiteAssembler.destroyReads(handle);
+            handle = 0;
+            clear();
+        }
+    }
+
+    long getHandle() {
+        if ( handle == 0 ) throw new IllegalStateException("The session has been closed.");
+        return handle;
+    }
+
+    long getMarshalNanos() { return marshalNanos; }
+
+    void added( final long nReads, final long nBases, final long nNativeBytes, final long marshalNanos ) {
+        this.nReads += nReads;
+        this.nBases += nBases;
+        this.nNativeBytes += nNativeBytes;
+        this.marshalNanos += marshalNanos;
+        FermiLiteMemoryBudget.allocated(nNativeBytes);
+    }
+
+    // the native reads have been consumed or freed
+    void clear() {
+        FermiLiteMemoryBudget.freed(nNativeBytes);
+        nReads = 0;
+        nBases = 0;
+        nNativeBytes = 0;
+        marshalNanos = 0;
+    }
+}
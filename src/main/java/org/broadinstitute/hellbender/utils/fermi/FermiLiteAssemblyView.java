@@ -0,0 +1,195 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An assembly that reads its contigs directly from the buffer of assembly data, without copying.
+ * Nothing is decoded until you ask for it, so this is cheap if you only look at a few contigs.
+ * The view must be closed to free the buffer, and it cannot be used after that.
+ * It's safe to read a view from multiple threads, but not to close it while someone is reading it.
+ */
+public final class FermiLiteAssemblyView implements AutoCloseable {
+    private static final int OVERLAP_SIZE = 8; // sizeof(fml_ovlp_t)
+    private ByteBuffer data;
+    private final boolean ownsData;
+    private final int[] recordOffsets; // where each contig's fixed-size data and overlaps begin
+    private final int[] seqOffsets;    // where each contig's sequence begins (coverage immediately follows)
+    private final long nEdges;
+
+    /**
+     * Expects data in the format described for FermiLiteAssembler.interpretAssemblyData.
+     * If ownsData is true, data must have been allocated by the native code (and counted in
+     * FermiLiteMemoryBudget.getUsedBytes()), and it will be freed on close.
+     */
+    FermiLiteAssemblyView( final ByteBuffer data, final boolean ownsData ) {
+        this(data, ownsData, ByteOrder.nativeOrder());
+    }
+
+    /** For assembly data in a particular byte order, e.g., a little-endian FermiLiteAssemblyArchive. */
+    FermiLiteAssemblyView( final ByteBuffer data, final boolean ownsData, final ByteOrder byteOrder ) {
+        this.data = data.duplicate().order(byteOrder);
+        this.ownsData = ownsData;
+        final int nContigs = this.data.getInt(0);
+        recordOffsets = new int[nContigs];
+        seqOffsets = new int[nContigs];
+        int recordOffset = 8; // skip past nContigs and seqOffset
+        int seqOffset = this.data.getInt(4);
+        long nConnectionsTotal = 0;
+        for ( int idx = 0; idx != nContigs; ++idx ) {
+            recordOffsets[idx] = recordOffset;
+            seqOffsets[idx] = seqOffset;
+            final int seqLen = this.data.getInt(recordOffset);
+            final int nConnections = this.data.getInt(recordOffset + 8);
+            recordOffset += 12 + OVERLAP_SIZE*nConnections;
+            seqOffset += 2*seqLen;
+            nConnectionsTotal += nConnections;
+        }
+        nEdges = nConnectionsTotal;
+    }
+
+    public boolean isOpen() { return data != null; }
+
+    @Override
+    public void close() {
+        if ( data != null ) {
+            if ( ownsData ) FermiLiteAssembler.freeNativeBuffer(data);
+            data = null;
+        }
+    }
+
+    public int getNContigs() { return recordOffsets.length; }
+
+    /** The total number of connections over all the contigs (counted from the contig headers, without decoding). */
+    public long getNEdges() { return nEdges; }
+
+    /** Returns a light-weight handle on a contig.  It's only valid until the view is closed. */
+    public Contig getContig( final int idx ) {
+        if ( idx < 0 || idx >= recordOffsets.length ) {
+            throw new IndexOutOfBoundsException("No contig " + idx + " in an assembly of " + recordOffsets.length);
+        }
+        return new Contig(idx);
+    }
+
+    /** Same answer as FermiLiteAssembly.computeN50, but without decoding the contigs. */
+    public int computeN50() {
+        final int nContigs = recordOffsets.length;
+        if ( nContigs < 1 ) return 0;
+        final ByteBuffer tmpData = getData();
+        final int[] lengths = new int[nContigs];
+        int totalLength = 0;
+        for ( int idx = 0; idx != nContigs; ++idx ) {
+            final int length = tmpData.getInt(recordOffsets[idx]);
+            lengths[idx] = length;
+            totalLength += length;
+        }
+        Arrays.sort(lengths);
+        int lengthSumDoubled = 0;
+        for ( int idx = nContigs - 1; idx >= 0; --idx ) {
+            lengthSumDoubled += 2 * lengths[idx];
+            if ( lengthSumDoubled >= totalLength ) return lengths[idx];
+        }
+        throw new ArithmeticException("impossible situation -- sum of array greater than twice the sum of each element");
+    }
+
+    /** Copy the whole assembly onto the heap.  The result remains valid after this view is closed. */
+    public FermiLiteAssembly toAssembly() {
+        final int nContigs = recordOffsets.length;
+        final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>(nContigs);
+        for ( int idx = 0; idx != nContigs; ++idx ) {
+            final Contig contig = new Contig(idx);
+            contigs.add(new FermiLiteAssembly.Contig(contig.getSequence(), contig.getPerBaseCoverage(),
+                                                    contig.getNSupportingReads()));
+        }
+        for ( int idx = 0; idx != nContigs; ++idx ) {
+            final Contig contig = new Contig(idx);
+            final int nConnections = contig.getNConnections();
+            final List<FermiLiteAssembly.Connection> connections = new ArrayList<>(nConnections);
+            for ( int connIdx = 0; connIdx != nConnections; ++connIdx ) {
+                connections.add(new FermiLiteAssembly.Connection(contigs.get(contig.getConnectionTarget(connIdx)),
+                        contig.getConnectionOverlapLen(connIdx),
+                        contig.isConnectionRC(connIdx),
+                        contig.isConnectionTargetRC(connIdx)));
+            }
+            contigs.get(idx).setConnections(connections);
+        }
+        return new FermiLiteAssembly(contigs);
+    }
+
+    /** A duplicate of the assembly data, in its byte order. */
+    ByteBuffer duplicateData() {
+        final ByteBuffer tmpData = getData();
+        return tmpData.duplicate().order(tmpData.order());
+    }
+
+    private ByteBuffer getData() {
+        if ( data == null ) {
+            throw new IllegalStateException("The assembly view has been closed.");
+        }
+        return data;
+    }
+
+    /** A contig whose data is read on demand from the view's buffer. */
+    public final class Contig {
+        private final int id;
+
+        private Contig( final int id ) { this.id = id; }
+
+        /** the contig's index within the assembly */
+        public int getId() { return id; }
+        public int getLength() { return getData().getInt(recordOffsets[id]); }
+        public int getNSupportingReads() { return getData().getInt(recordOffsets[id] + 4); }
+
+        public byte getBase( final int idx ) { return getData().get(seqOffsets[id] + checkIndex(idx)); }
+        /** coverage byte at idx:  subtract 33 to get the per-base coverage */
+        public byte getCoverage( final int idx ) { return getData().get(seqOffsets[id] + getLength() + checkIndex(idx)); }
+
+        /** copies the sequence onto the heap */
+        public byte[] getSequence() { return copyBytes(seqOffsets[id]); }
+        /** copies the per-base coverage onto the heap */
+        public byte[] getPerBaseCoverage() { return copyBytes(seqOffsets[id] + getLength()); }
+
+        public int getNConnections() { return getData().getInt(recordOffsets[id] + 8); }
+        /** id of the contig that overlaps this one */
+        public int getConnectionTarget( final int connIdx ) {
+            return getData().getInt(connectionOffset(connIdx) + 4) & Integer.MAX_VALUE;
+        }
+        /** bases in common -- negative overlap lengths are legal, and represent gaps */
+        public int getConnectionOverlapLen( final int connIdx ) {
+            return (getData().getInt(connectionOffset(connIdx)) << 1) >> 1; // sign-extend the 31-bit field
+        }
+        /** if target is a predecessor (i.e., upstream of the 5' end of this one) */
+        public boolean isConnectionRC( final int connIdx ) {
+            return getData().getInt(connectionOffset(connIdx)) >= 0; // sign bit is set when the 3' end overlaps
+        }
+        /** if connection is to RC of target contig */
+        public boolean isConnectionTargetRC( final int connIdx ) {
+            return getData().getInt(connectionOffset(connIdx) + 4) < 0;
+        }
+
+        private int connectionOffset( final int connIdx ) {
+            if ( connIdx < 0 || connIdx >= getNConnections() ) {
+                throw new IndexOutOfBoundsException("No connection " + connIdx + " for contig " + id);
+            }
+            return recordOffsets[id] + 12 + OVERLAP_SIZE*connIdx;
+        }
+
+        private int checkIndex( final int idx ) {
+            if ( idx < 0 || idx >= getLength() ) {
+                throw new IndexOutOfBoundsException("No base " + idx + " in contig " + id);
+            }
+            return idx;
+        }
+
+        private byte[] copyBytes( final int offset ) {
+            final ByteBuffer tmpData = getData().duplicate();
+            final byte[] bytes = new byte[getLength()];
+            tmpData.position(offset);
+            tmpData.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes assemblies as GFA or FASTA text, straight from the contigs' bytes, through a reusable buffer.
+ * The GFA is the same as FermiLiteAssembly.writeGFA produces, except that you can ask for per-base coverage
+ * to be written as a CV:Z tag on each segment (and on each FASTA header).  The coverage string has the same
+ * encoding as FermiLiteAssembly.Contig.getPerBaseCoverage:  subtract 33 from each character to get the coverage.
+ * FermiLiteAssemblyReader can read the GFA back in.
+ * This class is not thread-safe.
+ */
+public final class FermiLiteAssemblyWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] GFA_HEADER = bytes("H\tVN:Z:1.0\n");
+    private static final byte[] SEGMENT = bytes("S\ttig");
+    private static final byte[] LINK = bytes("L\ttig");
+    private static final byte[] TIG = bytes("tig");
+    private static final byte[] LENGTH_TAG = bytes("LN:i:");
+    private static final byte[] READ_COUNT_TAG = bytes("RC:i:");
+    private static final byte[] COVERAGE_TAG = bytes("CV:Z:");
+
+    private final WritableByteChannel channel;
+    private final boolean writeCoverage;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] digits = new byte[11];
+
+    public FermiLiteAssemblyWriter( final WritableByteChannel channel, final boolean writeCoverage ) {
+        this.channel = channel;
+        this.writeCoverage = writeCoverage;
+    }
+
+    public FermiLiteAssemblyWriter( final OutputStream outputStream, final boolean writeCoverage ) {
+        this(Channels.newChannel(outputStream), writeCoverage);
+    }
+
+    /** Write a GFA description of the assembly (header, segments, and links). */
+    public void writeGFA( final FermiLiteAssembly assembly ) throws IOException {
+        final List<FermiLiteAssembly.Contig> contigs = assembly.getContigs();
+        final Map<FermiLiteAssembly.Contig, Integer> idMap = assembly.makeContigIdMap();
+        put(GFA_HEADER);
+        final int nContigs = contigs.size();
+        for ( int contigId = 0; contigId != nContigs; ++contigId ) {
+            final FermiLiteAssembly.Contig contig = contigs.get(contigId);
+            put(SEGMENT).putInt(contigId).put((byte)'\t').put(contig.getSequence()).put((byte)'\t');
+            putTags(contig);
+            put((byte)'\n');
+            final List<FermiLiteAssembly.Connection> connections = contig.getConnections();
+            final int nConnections = connections.size();
+            for ( int connIdx = 0; connIdx != nConnections; ++connIdx ) {
+                final FermiLiteAssembly.Connection connection = connections.get(connIdx);
+                final Integer targetId = idMap.get(connection.getTarget());
+                if ( targetId == null ) {
+                    throw new IllegalArgumentException("Contig " + contigId + " is connected to a contig that isn't in the assembly.");
+                }
+                if ( contigId <= targetId ) {
+                    final int overlapLen = connection.getOverlapLen();
+                    put(LINK).putInt(contigId).put((byte)'\t').put((byte)(connection.isRC() ? '-' : '+'))
+                            .put((byte)'\t').put(TIG).putInt(targetId)
+                            .put((byte)'\t').put((byte)(connection.isTargetRC() ? '-' : '+')).put((byte)'\t');
+                    if ( overlapLen < 0 ) putInt(-overlapLen).put((byte)'H');
+                    else putInt(overlapLen).put((byte)'M');
+                    put((byte)'\n');
+                }
+            }
+        }
+    }
+
+    /** Write each contig as a FASTA record named tig#, with its tags on the header line. */
+    public void writeFASTA( final FermiLiteAssembly assembly ) throws IOException {
+        final List<FermiLiteAssembly.Contig> contigs = assembly.getContigs();
+        final int nContigs = contigs.size();
+        for ( int contigId = 0; contigId != nContigs; ++contigId ) {
+            final FermiLiteAssembly.Contig contig = contigs.get(contigId);
+            put((byte)'>').put(TIG).putInt(contigId).put((byte)' ');
+            putTags(contig);
+            put((byte)'\n').put(contig.getSequence()).put((byte)'\n');
+        }
+    }
+
+    /** Write any buffered text to the channel. */
+    public void flush() throws IOException {
+        buffer.flip();
+        while ( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Flushes, and closes the channel. */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void putTags( final FermiLiteAssembly.Contig contig ) throws IOException {
+        put(LENGTH_TAG).putInt(contig.getSequence().length).put((byte)'\t').put(READ_COUNT_TAG).putInt(contig.getNSupportingReads());
+        if ( writeCoverage ) {
+            put((byte)'\t').put(COVERAGE_TAG).put(contig.getPerBaseCoverage());
+        }
+    }
+
+    private FermiLiteAssemblyWriter put( final byte value ) throws IOException {
+        if ( !buffer.hasRemaining() ) flush();
+        buffer.put(value);
+        return this;
+    }
+
+    private FermiLiteAssemblyWriter put( final byte[] values ) throws IOException {
+        int offset = 0;
+        while ( offset < values.length ) {
+            if ( !buffer.hasRemaining() ) flush();
+            final int len = Math.min(buffer.remaining(), values.length - offset);
+            buffer.put(values, offset, len);
+            offset += len;
+        }
+        return this;
+    }
+
+    // writes a non-negative int in decimal
+    private FermiLiteAssemblyWriter putInt( int value ) throws IOException {
+        int idx = digits.length;
+        do {
+            digits[--idx] = (byte)('0' + value % 10);
+            value /= 10;
+        } while ( value != 0 );
+        if ( buffer.remaining() < digits.length - idx ) flush();
+        buffer.put(digits, idx, digits.length - idx);
+        return this;
+    }
+
+    private static byte[] bytes( final String text ) {
+        final byte[] result = new byte[text.length()];
+        for ( int idx = 0; idx != result.length; ++idx ) {
+            result[idx] = (byte)text.charAt(idx);
+        }
+        return result;
+    }
+}
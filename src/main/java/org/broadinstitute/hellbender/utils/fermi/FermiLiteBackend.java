@@ -0,0 +1,85 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * An alternative to the JNI bridge for FermiLiteAssembler.createAssembly.
+ * Property LIBFML_BACKEND chooses the backend:  "jni" (the default), or "ffm", which uses the Foreign Function &amp;
+ * Memory API.  The FFM backend lives in the Java 22 part of the (multi-release) jar, and so it's only available when
+ * you run on Java 22 or later with a jar that was built with it (see build.gradle).  If you ask for it when it isn't
+ * there, or when it can't be set up (because of a missing symbol, say, or denied native access), you get JNI
+ * instead, and a warning that says why.  Set property LIBFML_BACKEND_STRICT to true to make that an error instead.
+ * Use FermiLiteAssembler.getBackendName() to find out which one you got.
+ *
+ * Only createAssembly(Iterable, Function) (and the createAssembly overload that calls it) goes through the backend.
+ * Everything else -- createAssemblyView, createAssemblies, createAssemblyFromPackedReads, FermiLiteAssemblySession,
+ * and the staged API in FermiLiteStages -- always uses JNI.
+ */
+interface FermiLiteBackend {
+    String JNI = "jni";
+    String FFM = "ffm";
+    String STRICT_PROPERTY = "LIBFML_BACKEND_STRICT";
+
+    /** the value of LIBFML_BACKEND that selects this backend */
+    String getName();
+
+    /**
+     * Assemble the reads using the assembler's options, just as FermiLiteAssembler.createAssembly does.
+     * The backend honors the process memory budget, and reports its metrics to the assembler.
+     */
+    <T> FermiLiteAssembly createAssembly( FermiLiteAssembler assembler, Iterable<T> reads,
+                                          Function<T,FermiLiteAssembler.BasesAndQuals> func );
+
+    /**
+     * The backend chosen by LIBFML_BACKEND, or null for JNI.  The native library must already be loaded.
+     * Falls back to JNI, with a warning, if the FFM backend isn't available, unless LIBFML_BACKEND_STRICT is true.
+     */
+    static FermiLiteBackend select() {
+        final String name = System.getProperty("LIBFML_BACKEND", JNI);
+        if ( JNI.equals(name) ) return null;
+        if ( !FFM.equals(name) ) {
+            throw new IllegalStateException("LIBFML_BACKEND must be " + JNI + " or " + FFM + ", not " + name + ".");
+        }
+        final boolean strict = Boolean.getBoolean(STRICT_PROPERTY);
+        final FermiLiteBackend ffm;
+        try {
+            ffm = createFFM();
+        } catch ( final IllegalStateException ise ) {
+            if ( strict ) throw ise;
+            Logger.getLogger(FermiLiteBackend.class.getName()).warning("LIBFML_BACKEND is " + FFM +
+                    ", but the FFM backend couldn't be set up (" + ise.getCause() + ").  Using " + JNI + " instead.");
+            return null;
+        }
+        if ( ffm == null ) {
+            final String reason = "LIBFML_BACKEND is " + FFM + ", but the FFM backend isn't available:  " +
+                    "it needs Java 22 or later, and a jar built with -Pjava22Home.  Java is version " +
+                    System.getProperty("java.version") + ".";
+            if ( strict ) throw new IllegalStateException(reason);
+            Logger.getLogger(FermiLiteBackend.class.getName()).warning(reason + "  Using " + JNI + " instead.");
+        }
+        return ffm;
+    }
+
+    /**
+     * A new FFM backend, or null if it isn't available (because we're running on a Java older than 22, or the jar
+     * wasn't built with it).  The native library must already be loaded.
+     */
+    static FermiLiteBackend createFFM() {
+        final Class<?> ffmClass;
+        try {
+            ffmClass = Class.forName("org.broadinstitute.hellbender.utils.fermi.FermiLiteFFMBackend");
+        } catch ( final ClassNotFoundException | UnsupportedClassVersionError e ) {
+            return null;
+        }
+        try {
+            return (FermiLiteBackend)ffmClass.getDeclaredConstructor(String.class)
+                    .newInstance(FermiLiteLibraryLoader.getLoadedLibrary());
+        } catch ( final InvocationTargetException e ) {
+            throw new IllegalStateException("Unable to set up the FFM backend.", e.getCause());
+        } catch ( final ReflectiveOperationException | LinkageError e ) {
+            throw new IllegalStateException("Unable to set up the FFM backend.", e);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Digital normalization:  an optional pre-assembly step that caps the coverage of the reads you hand to
+ * FermiLiteAssembler.  In very deep regions most of the reads are redundant, but fermi-lite's time and memory
+ * grow with the number of reads.
+ * The reads are streamed through a count-min sketch of k-mer counts.  A read is dropped if the median of the
+ * (estimated) counts of its k-mers has already reached the target coverage.  Otherwise it's kept, and its k-mers
+ * are counted.  K-mers are canonical (a k-mer and its reverse complement are counted together), and k-mers that
+ * contain anything other than A, C, G, or T are ignored.  Reads that have no countable k-mers are always kept.
+ * The reads are taken a batch at a time:  the k-mers of each batch are hashed in parallel, in chunks, and then
+ * the reads are kept or dropped in their original order, so the result is the same from run to run.
+ * Given a List of reads, the sketch is sized for the number of k-mers in the reads, up to a memory budget (16MB by
+ * default).  Reads streamed from an Iterator can't be counted in advance, so their sketch takes the whole budget.
+ * The sketch is kept off the Java heap, in a direct buffer.
+ * This class is thread-safe:  each call to normalize uses a fresh sketch.
+ */
+public final class FermiLiteDigitalNormalizer {
+    public static final int DEFAULT_KMER_SIZE = 20;
+    public static final int DEFAULT_TARGET_COVERAGE = 20;
+    public static final int DEFAULT_MAX_SKETCH_BYTES = 16 << 20;
+
+    private static final int SKETCH_DEPTH = 4;        // number of hash functions (rows) in the count-min sketch
+    private static final int MIN_SKETCH_WIDTH = 1 << 10;
+    private static final int MAX_SKETCH_WIDTH = 1 << 26;
+    private static final int CHUNK_SIZE = 256;        // number of reads hashed as a unit of parallel work
+    private static final int CHUNKS_PER_BATCH = 32;   // number of chunks hashed before any are examined
+    private static final int BATCH_SIZE = CHUNK_SIZE * CHUNKS_PER_BATCH;
+    private static final long UNKNOWN_N_READS = -1;
+    private static final int NOT_A_BASE = -1;
+    private static final int[] BASE_CODES = new int[256];
+    static {
+        Arrays.fill(BASE_CODES, NOT_A_BASE);
+        BASE_CODES['A'] = BASE_CODES['a'] = 0;
+        BASE_CODES['C'] = BASE_CODES['c'] = 1;
+        BASE_CODES['G'] = BASE_CODES['g'] = 2;
+        BASE_CODES['T'] = BASE_CODES['t'] = 3;
+    }
+
+    private final int kmerSize;
+    private final int targetCoverage;
+    private final int maxSketchWidth;
+
+    public FermiLiteDigitalNormalizer() {
+        this(DEFAULT_KMER_SIZE, DEFAULT_TARGET_COVERAGE);
+    }
+
+    public FermiLiteDigitalNormalizer( final int kmerSize, final int targetCoverage ) {
+        this(kmerSize, targetCoverage, DEFAULT_MAX_SKETCH_BYTES);
+    }
+
+    /**
+     * maxSketchBytes limits the size of the count-min sketch, and must be at least 16KB.  The sketch is smaller
+     * when there are fewer k-mers.  When there are many more k-mers than will fit, counts are overestimated,
+     * and too many reads are dropped.
+     */
+    public FermiLiteDigitalNormalizer( final int kmerSize, final int targetCoverage, final long maxSketchBytes ) {
+        if ( kmerSize < 1 || kmerSize > 31 ) throw new IllegalArgumentException("kmerSize must be in [1,31]");
+        if ( targetCoverage < 1 ) throw new IllegalArgumentException("targetCoverage must be positive");
+        if ( maxSketchBytes < 4L * SKETCH_DEPTH * MIN_SKETCH_WIDTH ) {
+            throw new IllegalArgumentException("maxSketchBytes must be at least " + 4L * SKETCH_DEPTH * MIN_SKETCH_WIDTH);
+        }
+        this.kmerSize = kmerSize;
+        this.targetCoverage = targetCoverage;
+        int width = MIN_SKETCH_WIDTH;
+        while ( width < MAX_SKETCH_WIDTH && 8L * SKETCH_DEPTH * width <= maxSketchBytes ) width <<= 1;
+        this.maxSketchWidth = width;
+    }
+
+    public int getKmerSize() { return kmerSize; }
+    public int getTargetCoverage() { return targetCoverage; }
+    public long getMaxSketchBytes() { return 4L * SKETCH_DEPTH * maxSketchWidth; }
+
+    /**
+     * Returns the reads that survive normalization, in their original order.
+     */
+    public <T extends FermiLiteAssembler.BasesAndQuals> List<T> normalize( final List<T> reads ) {
+        return normalize(reads, bAndQ -> bAndQ);
+    }
+
+    /**
+     * Returns the reads that survive normalization, in their original order.
+     * The reads are transformed (with a lambda) into BasesAndQuals, once each, in order.  Only the bases are examined.
+     */
+    public <T> List<T> normalize( final List<T> reads, final Function<T,FermiLiteAssembler.BasesAndQuals> func ) {
+        final List<T> survivors = new ArrayList<>();
+        normalize(reads.iterator(), reads.size(), func, survivors::add);
+        return survivors;
+    }
+
+    /**
+     * Streams the reads through the filter, handing each survivor to the consumer in the original order.
+     * See {@link #normalize(Iterator, Function, Consumer)}.
+     */
+    public <T extends FermiLiteAssembler.BasesAndQuals> void normalize( final Iterator<T> reads,
+                                                                        final Consumer<? super T> survivors ) {
+        normalize(reads, bAndQ -> bAndQ, survivors);
+    }
+
+    /**
+     * Streams the reads through the filter, handing each survivor to the consumer in the original order.
+     * Only a batch of reads is held at a time, and the survivors of each batch are handed over before the next
+     * batch is taken, so the reads can come from a source that's too big to hold, like a BAM iterator.
+     * The reads are transformed (with a lambda) into BasesAndQuals, once each, in order.  Only the bases are examined.
+     */
+    public <T> void normalize( final Iterator<T> reads, final Function<T,FermiLiteAssembler.BasesAndQuals> func,
+                               final Consumer<? super T> survivors ) {
+        normalize(reads, UNKNOWN_N_READS, func, survivors);
+    }
+
+    private <T> void normalize( final Iterator<T> reads, final long nReads,
+                                final Function<T,FermiLiteAssembler.BasesAndQuals> func,
+                                final Consumer<? super T> survivors ) {
+        final int batchCapacity = nReads == UNKNOWN_N_READS ? BATCH_SIZE : (int)Math.max(1, Math.min(nReads, BATCH_SIZE));
+        final List<T> batch = new ArrayList<>(batchCapacity);
+        final byte[][] batchBases = new byte[batchCapacity][];
+        final long[][] chunkHashes = new long[CHUNKS_PER_BATCH][];
+        final int[][] chunkKmerEnds = new int[CHUNKS_PER_BATCH][CHUNK_SIZE];
+        Sketch sketch = null;
+        int[] counts = new int[256];
+        while ( reads.hasNext() ) {
+            batch.clear();
+            while ( batch.size() != batchCapacity && reads.hasNext() ) {
+                final T read = reads.next();
+                batchBases[batch.size()] = func.apply(read).getBases();
+                batch.add(read);
+            }
+            final int batchSize = batch.size();
+
+            // hashing depends only on the bases, so it can be done in parallel
+            final int nChunks = (batchSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+                final int start = chunk * CHUNK_SIZE;
+                final int end = Math.min(batchSize, start + CHUNK_SIZE);
+                int nKmers = 0;
+                for ( int idx = start; idx != end; ++idx ) {
+                    nKmers += Math.max(0, batchBases[idx].length - kmerSize + 1);
+                }
+                long[] hashes = chunkHashes[chunk];
+                if ( hashes == null || hashes.length < nKmers ) chunkHashes[chunk] = hashes = new long[nKmers];
+                final int[] kmerEnds = chunkKmerEnds[chunk];
+                int kmerEnd = 0;
+                for ( int idx = start; idx != end; ++idx ) {
+                    kmerEnd += hashKmers(batchBases[idx], hashes, kmerEnd);
+                    kmerEnds[idx - start] = kmerEnd;
+                }
+            });
+            Arrays.fill(batchBases, 0, batchSize, null);
+
+            // given the number of reads, the sketch is sized for all of them, extrapolating from the k-mers in the
+            // first batch.  otherwise, it's as big as the budget allows.
+            if ( sketch == null ) {
+                long nKmers = Long.MAX_VALUE;
+                if ( nReads != UNKNOWN_N_READS ) {
+                    nKmers = 0;
+                    for ( int chunk = 0; chunk != nChunks; ++chunk ) {
+                        nKmers += chunkKmerEnds[chunk][Math.min(batchSize - chunk * CHUNK_SIZE, CHUNK_SIZE) - 1];
+                    }
+                    nKmers = (nKmers * nReads + batchSize - 1) / batchSize;
+                }
+                sketch = new Sketch(nKmers, maxSketchWidth);
+            }
+
+            // keeping or dropping a read depends on the reads before it, so this is done in order
+            for ( int idx = 0; idx != batchSize; ++idx ) {
+                final long[] hashes = chunkHashes[idx / CHUNK_SIZE];
+                final int[] kmerEnds = chunkKmerEnds[idx / CHUNK_SIZE];
+                final int kmerStart = idx % CHUNK_SIZE == 0 ? 0 : kmerEnds[idx % CHUNK_SIZE - 1];
+                final int nReadKmers = kmerEnds[idx % CHUNK_SIZE] - kmerStart;
+                if ( nReadKmers > counts.length ) counts = new int[nReadKmers];
+                if ( isNovel(sketch, hashes, kmerStart, nReadKmers, counts) ) {
+                    survivors.accept(batch.get(idx));
+                }
+            }
+        }
+    }
+
+    // Decides whether to keep a read, given the hashes of its k-mers, and counts its k-mers if it's kept.
+    private boolean isNovel( final Sketch sketch, final long[] hashes, final int kmerStart, final int nReadKmers,
+                             final int[] counts ) {
+        if ( nReadKmers == 0 ) return true;
+        for ( int kmerIdx = 0; kmerIdx != nReadKmers; ++kmerIdx ) {
+            counts[kmerIdx] = sketch.estimate(hashes[kmerStart + kmerIdx]);
+        }
+        Arrays.sort(counts, 0, nReadKmers);
+        if ( counts[nReadKmers / 2] >= targetCoverage ) return false;
+        for ( int kmerIdx = 0; kmerIdx != nReadKmers; ++kmerIdx ) {
+            sketch.increment(hashes[kmerStart + kmerIdx]);
+        }
+        return true;
+    }
+
+    // Puts a hash of each canonical k-mer of the read into the hashes array, starting at offset, and returns
+    // how many there are.
+    private int hashKmers( final byte[] bases, final long[] hashes, final int offset ) {
+        final int rcShift = 2 * (kmerSize - 1);
+        final long mask = (1L << (2 * kmerSize)) - 1;
+        long kmer = 0;
+        long rcKmer = 0;
+        int nValidBases = 0;
+        int nKmers = 0;
+        for ( final byte base : bases ) {
+            final int code = BASE_CODES[base & 0xff];
+            if ( code == NOT_A_BASE ) {
+                nValidBases = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & mask;
+            rcKmer = (rcKmer >>> 2) | ((long)(3 - code) << rcShift);
+            if ( ++nValidBases >= kmerSize ) {
+                hashes[offset + nKmers++] = mix(Math.min(kmer, rcKmer));
+            }
+        }
+        return nKmers;
+    }
+
+    // a 64-bit finalizer (from MurmurHash3) to scramble the bits of a k-mer
+    private static long mix( long val ) {
+        val ^= val >>> 33;
+        val *= 0xff51afd7ed558ccdL;
+        val ^= val >>> 33;
+        val *= 0xc4ceb9fe1a85ec53L;
+        val ^= val >>> 33;
+        return val;
+    }
+
+    // A count-min sketch with SKETCH_DEPTH rows, in a direct buffer.  The row indices for a k-mer are derived from
+    // its 64-bit hash by double hashing.  Counts saturate at Integer.MAX_VALUE.
+    private static final class Sketch {
+        private final IntBuffer counts;
+        private final int widthMask;
+
+        Sketch( final long nKmers, final int maxWidth ) {
+            // about 2 cells per k-mer in each row:  a count-min sketch only overestimates, so we want few collisions
+            int width = MIN_SKETCH_WIDTH;
+            while ( width < maxWidth && width / 2 < nKmers ) width <<= 1;
+            counts = ByteBuffer.allocateDirect(4 * SKETCH_DEPTH * width).order(ByteOrder.nativeOrder()).asIntBuffer();
+            widthMask = width - 1;
+        }
+
+        int estimate( final long hash ) {
+            int min = Integer.MAX_VALUE;
+            final int hash1 = (int)hash;
+            final int hash2 = (int)(hash >>> 32) | 1;
+            for ( int row = 0; row != SKETCH_DEPTH; ++row ) {
+                min = Math.min(min, counts.get(cellIndex(row, hash1, hash2)));
+            }
+            return min;
+        }
+
+        void increment( final long hash ) {
+            final int hash1 = (int)hash;
+            final int hash2 = (int)(hash >>> 32) | 1;
+            for ( int row = 0; row != SKETCH_DEPTH; ++row ) {
+                final int cell = cellIndex(row, hash1, hash2);
+                final int count = counts.get(cell);
+                if ( count != Integer.MAX_VALUE ) counts.put(cell, count + 1);
+            }
+        }
+
+        private int cellIndex( final int row, final int hash1, final int hash2 ) {
+            return row * (widthMask + 1) + ((hash1 + row * hash2) & widthMask);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Finds and loads the fermi-lite native library.
+ *
+ * Property LIBFML_PATH names a library to load instead of the ones in the jar.
+ * Otherwise, on x86_64 Linux, we pick the most highly tuned build that the CPU supports (AVX2, then SSE4.2, then the
+ * baseline build), according to the flags in /proc/cpuinfo.  Property LIBFML_VARIANT (avx2, sse42, or baseline)
+ * overrides that choice.
+ * The library is extracted from the jar into a cache directory named by a hash of its contents, so that later JVMs
+ * can just load it rather than copying it out again.  The hashes and sizes are computed by the build, and listed in
+ * the resource /libfml.properties, so a JVM that finds its library in the cache never reads the copy in the jar.
+ * Property LIBFML_CACHE_DIR says where the cache lives
+ * (by default, a per-user directory in java.io.tmpdir).  The cache directories are private to the user, since anyone
+ * who could write to them could replace the library.  If the cache can't be used (because someone else owns it,
+ * say, or it's writable by others), we fall back to a temp file.
+ */
+final class FermiLiteLibraryLoader {
+    static final String BASELINE = "baseline";
+
+    // the builds, from most to least demanding, and the /proc/cpuinfo flags that each requires.
+    // the flags match the instruction-set options in src/main/c/Makefile (abm is how cpuinfo spells lzcnt, and gcc
+    // enables xsave along with avx).
+    private static final String[] VARIANTS = { "avx2", "sse42", BASELINE };
+    private static final String[][] VARIANT_FLAGS = {
+            { "ssse3", "sse4_1", "sse4_2", "popcnt", "cx16", "avx", "avx2", "xsave", "fma", "bmi1", "bmi2", "f16c", "movbe",
+              "abm" },
+            { "ssse3", "sse4_1", "sse4_2", "popcnt", "cx16" },
+            {}
+    };
+    private static final String MANIFEST_NAME = "/libfml.properties";
+
+    private static volatile String loadedLibrary;
+
+    private FermiLiteLibraryLoader() {}
+
+    /** The path of the library that was loaded, or null if it hasn't been loaded. */
+    static String getLoadedLibrary() { return loadedLibrary; }
+
+    static synchronized void load() {
+        if ( loadedLibrary != null ) return;
+        final String libNameOverride = System.getProperty("LIBFML_PATH");
+        if ( libNameOverride != null ) {
+            System.load(libNameOverride);
+            loadedLibrary = libNameOverride;
+            return;
+        }
+        final String osName = System.getProperty("os.name", "unknown").toUpperCase();
+        final String osArch = System.getProperty("os.arch");
+        final String libExt;
+        if ( !"x86_64".equals(osArch) && !"amd64".equals(osArch) ) {
+            throw new IllegalStateException(
+                    "We have pre-built fermi-lite binaries only for x86_64 and amd64.  "+
+                    "Your os.arch is "+osArch+"."+
+                    "Set property LIBFML_PATH to point to a native library for your architecture.");
+        }
+        if ( osName.startsWith("MAC") ) libExt = "Darwin.dylib";
+        else if ( osName.startsWith("LINUX") ) libExt = "Linux.so";
+        else {
+            throw new IllegalStateException(
+                    "We have pre-built fermi-lite binaries only for Linux and Mac.  "+
+                    "Your os.name is "+osName+"."+
+                    "Set property LIBFML_PATH to point to a native library for your operating system.");
+        }
+
+        final String variantOverride = System.getProperty("LIBFML_VARIANT");
+        final List<String> variants;
+        if ( variantOverride != null ) {
+            if ( !Arrays.asList(VARIANTS).contains(variantOverride) ) {
+                throw new IllegalStateException("LIBFML_VARIANT must be one of " + Arrays.toString(VARIANTS) + ".");
+            }
+            variants = Collections.singletonList(variantOverride);
+        } else if ( libExt.startsWith("Linux") ) {
+            variants = chooseVariants(readCPUFlags());
+        } else {
+            variants = Collections.singletonList(BASELINE);
+        }
+
+        final Properties manifest = readManifest();
+        for ( final String variant : variants ) {
+            final String libName = getResourceName(variant, libExt);
+            final String libPath;
+            try {
+                libPath = extract(libName, manifest.getProperty(libName.substring(1)));
+            } catch ( final IOException ioe ) {
+                throw new IllegalStateException("Misconfiguration: Unable to read fermi-lite native library "+libName, ioe);
+            }
+            if ( libPath == null ) continue; // not every jar has every variant
+            System.load(libPath);
+            loadedLibrary = libPath;
+            return;
+        }
+        throw new IllegalStateException("Can't find resource " + getResourceName(variants.get(0), libExt));
+    }
+
+    // the resource name of a variant of the library, e.g., /libfml.Linux.so or /libfml.avx2.Linux.so
+    static String getResourceName( final String variant, final String libExt ) {
+        return BASELINE.equals(variant) ? "/libfml." + libExt : "/libfml." + variant + "." + libExt;
+    }
+
+    /** The variants that a CPU with the given flags can run, best first.  The baseline build is always last. */
+    static List<String> chooseVariants( final Set<String> cpuFlags ) {
+        final List<String> variants = new ArrayList<>(VARIANTS.length);
+        for ( int idx = 0; idx != VARIANTS.length; ++idx ) {
+            if ( cpuFlags.containsAll(Arrays.asList(VARIANT_FLAGS[idx])) ) variants.add(VARIANTS[idx]);
+        }
+        return variants;
+    }
+
+    // the CPU feature flags from /proc/cpuinfo, or an empty set if we can't read them
+    private static Set<String> readCPUFlags() {
+        try {
+            for ( final String line : Files.readAllLines(Paths.get("/proc/cpuinfo")) ) {
+                if ( line.startsWith("flags") ) {
+                    final int colonIdx = line.indexOf(':');
+                    if ( colonIdx >= 0 ) {
+                        return new HashSet<>(Arrays.asList(line.substring(colonIdx + 1).trim().split("\\s+")));
+                    }
+                }
+            }
+        } catch ( final IOException | RuntimeException e ) {
+            // fall through:  we'll use the baseline build
+        }
+        return Collections.emptySet();
+    }
+
+    /** Something that can (repeatedly) supply the contents of a library. */
+    @FunctionalInterface
+    interface Source {
+        /** A stream of the library's contents, or null if there's no such library. */
+        InputStream open() throws IOException;
+    }
+
+    // the build's list of the libraries in the jar:  each resource name maps to "<SHA-256> <size>".
+    // empty if there's no list (when the library was put on the class path by hand, say).
+    private static Properties readManifest() {
+        final Properties manifest = new Properties();
+        try ( final InputStream is = FermiLiteLibraryLoader.class.getResourceAsStream(MANIFEST_NAME) ) {
+            if ( is != null ) manifest.load(is);
+        } catch ( final IOException ioe ) {
+            // we'll hash the libraries ourselves
+            manifest.clear();
+        }
+        return manifest;
+    }
+
+    // the contents of a resource, or null if there's no such resource
+    private static byte[] readResource( final String name ) throws IOException {
+        try ( final InputStream is = FermiLiteLibraryLoader.class.getResourceAsStream(name) ) {
+            if ( is == null ) return null;
+            final ByteArrayOutputStream os = new ByteArrayOutputStream(1 << 20);
+            final byte[] buffer = new byte[1 << 16];
+            int nRead;
+            while ( (nRead = is.read(buffer)) > 0 ) {
+                os.write(buffer, 0, nRead);
+            }
+            return os.toByteArray();
+        }
+    }
+
+    // finds the library in the cache, or puts it there, and returns its path.  returns null if there's no such
+    // resource.  manifestEntry is the build's "<SHA-256> <size>" for the library, or null if we don't have one.
+    // if the cache isn't usable, the library is written to a temp file instead.
+    private static String extract( final String libName, final String manifestEntry ) throws IOException {
+        String sha256 = null;
+        long size = -1L;
+        final String[] hashAndSize = manifestEntry == null ? new String[0] : manifestEntry.trim().split("\\s+");
+        if ( hashAndSize.length == 2 ) {
+            try {
+                size = Long.parseLong(hashAndSize[1]);
+                sha256 = hashAndSize[0];
+            } catch ( final NumberFormatException nfe ) {
+                // we'll hash the library ourselves
+            }
+        }
+        final Source source;
+        if ( sha256 != null ) {
+            source = () -> FermiLiteLibraryLoader.class.getResourceAsStream(libName);
+        } else {
+            final byte[] libBytes = readResource(libName);
+            if ( libBytes == null ) return null;
+            sha256 = hash(libBytes);
+            size = libBytes.length;
+            source = () -> new ByteArrayInputStream(libBytes);
+        }
+        final String cacheDirName = System.getProperty("LIBFML_CACHE_DIR");
+        final Path cacheDir = cacheDirName != null ? Paths.get(cacheDirName) :
+                Paths.get(System.getProperty("java.io.tmpdir"),
+                        "gatk-fermilite-jni-" + System.getProperty("user.name", "unknown"));
+        try {
+            final Path libPath = extractToCache(cacheDir, libName.substring(1), sha256, size, source);
+            return libPath == null ? null : libPath.toString();
+        } catch ( final IOException | RuntimeException e ) {
+            try ( final InputStream is = source.open() ) {
+                if ( is == null ) return null;
+                final File tmpFile = File.createTempFile("libfml.",".jnilib");
+                tmpFile.deleteOnExit();
+                Files.copy(is, tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return tmpFile.getPath();
+            } catch ( final IOException ioe ) {
+                throw new IllegalStateException("Misconfiguration: Unable to load fermi-lite native library "+libName, ioe);
+            }
+        }
+    }
+
+    /**
+     * Returns the path of a file called fileName, with the given SHA-256 hash and size, in a subdirectory of cacheDir
+     * named by the hash.  If there's already a file of that size there, it's used without reading it.  Otherwise the
+     * contents are copied from source (which may return null if there's no such library:  then so do we), and an
+     * IOException is thrown if they don't match the hash and size.
+     * Concurrent JVMs may race to create the file:  each writes a private temp file and renames it into place.
+     * On POSIX file systems, the directories are created with owner-only permissions, and an IOException is thrown
+     * if either directory already exists but isn't private to the current user.
+     */
+    static Path extractToCache( final Path cacheDir, final String fileName, final String sha256, final long size,
+                                final Source source ) throws IOException {
+        final Path dir = cacheDir.resolve(sha256);
+        final Path libPath = dir.resolve(fileName);
+        createPrivateDirectory(cacheDir);
+        createPrivateDirectory(dir);
+        if ( Files.isRegularFile(libPath, LinkOption.NOFOLLOW_LINKS) && Files.size(libPath) == size ) return libPath;
+        final Path tmpPath = Files.createTempFile(dir, fileName, ".tmp");
+        try {
+            final MessageDigest digest = newDigest();
+            try ( final InputStream is = source.open() ) {
+                if ( is == null ) return null;
+                try ( final OutputStream os = new DigestOutputStream(Files.newOutputStream(tmpPath), digest) ) {
+                    final byte[] buffer = new byte[1 << 16];
+                    int nRead;
+                    while ( (nRead = is.read(buffer)) > 0 ) {
+                        os.write(buffer, 0, nRead);
+                    }
+                }
+            }
+            if ( Files.size(tmpPath) != size || !toHex(digest.digest()).equals(sha256) ) {
+                throw new IOException("The contents of " + fileName + " don't match the expected hash and size.");
+            }
+            try {
+                Files.move(tmpPath, libPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch ( final AtomicMoveNotSupportedException amnse ) {
+                Files.move(tmpPath, libPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+        return libPath;
+    }
+
+    // creates a directory that only its owner can use, or checks that an existing one is owned by the current user,
+    //  and isn't a symbolic link or writable by anyone else.  no checks are possible on non-POSIX file systems.
+    private static void createPrivateDirectory( final Path dir ) throws IOException {
+        final boolean isPosix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if ( !Files.exists(dir, LinkOption.NOFOLLOW_LINKS) ) {
+            try {
+                if ( isPosix ) {
+                    Files.createDirectories(dir,
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                } else {
+                    Files.createDirectories(dir);
+                }
+            } catch ( final FileAlreadyExistsException faee ) {
+                // someone else got there first:  we'll check it out below
+            }
+        }
+        if ( !isPosix ) return;
+        final PosixFileAttributes attrs =
+                Files.getFileAttributeView(dir, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                        .readAttributes();
+        if ( !attrs.isDirectory() ) throw new IOException(dir + " isn't a directory.");
+        final UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if ( !attrs.owner().equals(user) ) throw new IOException(dir + " isn't owned by " + user.getName() + ".");
+        final Set<PosixFilePermission> perms = attrs.permissions();
+        if ( perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE) ) {
+            throw new IOException(dir + " is writable by others.");
+        }
+    }
+
+    static String hash( final byte[] bytes ) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch ( final NoSuchAlgorithmException nsae ) {
+            throw new IllegalStateException("No SHA-256 implementation.", nsae);
+        }
+    }
+
+    private static String toHex( final byte[] digest ) {
+        final StringBuilder sb = new StringBuilder(2*digest.length);
+        for ( final byte b : digest ) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A limit on the native memory used by concurrent assemblies.
+ * Fermi-lite's memory is malloc'd outside the JVM heap, so the JVM doesn't know about it, and several deep assemblies
+ * running at once can get a container OOM-killed.  If you install a process budget (see setProcessBudget), each
+ * FermiLiteAssembler call (createAssembly, createAssemblyView, createAssemblies) reserves its estimated footprint
+ * before it enters the native code, and releases it when it's done.  A call that doesn't fit either blocks until
+ * enough memory is released, or fails fast with an IllegalStateException, according to the budget's Mode.
+ * (In BLOCK mode, a call whose estimate exceeds the whole budget is admitted when nothing else is running.)
+ * A staged assembly (see FermiLiteStages) reserves its footprint in loadReads, and holds the reservation until its
+ * reads, and every index and graph made from them, have been closed or consumed.
+ *
+ * The footprint is estimated from the number of reads and bases, before any native memory is allocated.
+ * getReservedBytes() reports the sum of the estimates for the calls that are running.  getUsedBytes() reports what's
+ * actually allocated right now in the native buffers that this library holds (read buffers, assembly data that
+ * hasn't yet been freed, including the data behind open FermiLiteAssemblyViews, and the read sets held by open
+ * FermiLiteAssemblySessions and FermiLiteStages.Reads), but fermi-lite's internal structures are invisible to it.
+ */
+public final class FermiLiteMemoryBudget {
+    public enum Mode {
+        /** wait until the reservation fits */
+        BLOCK,
+        /** throw an IllegalStateException if the reservation doesn't fit right now */
+        FAIL_FAST
+    }
+
+    // a deliberately conservative guess at fermi-lite's peak usage.  the reads are copied twice (once in the read
+    // buffer, and once as fermi-lite's bseq1_t's), and then there's the error-correction k-mer table, the FM-index,
+    // the overlap graph, and the unitigs.
+    static final long BYTES_PER_BASE = 32;
+    static final long BYTES_PER_READ = 128;
+    static final long BYTES_PER_ASSEMBLY = 1L << 20;
+
+    private static volatile FermiLiteMemoryBudget processBudget;
+    private static final AtomicLong usedBytes = new AtomicLong();
+
+    private final long maxBytes;
+    private final Mode mode;
+    private long reservedBytes; // guarded by this
+    private int nReservations;  // guarded by this
+    private long nRejected;     // guarded by this
+    private long nBlocked;      // guarded by this
+
+    public FermiLiteMemoryBudget( final long maxBytes, final Mode mode ) {
+        if ( maxBytes <= 0 ) throw new IllegalArgumentException("maxBytes must be positive");
+        if ( mode == null ) throw new IllegalArgumentException("mode must not be null");
+        this.maxBytes = maxBytes;
+        this.mode = mode;
+    }
+
+    /** Install a budget that applies to every FermiLiteAssembler in the process.  Null means no limit. */
+    public static void setProcessBudget( final FermiLiteMemoryBudget budget ) { processBudget = budget; }
+
+    /** The budget that applies to every FermiLiteAssembler in the process, or null if there's no limit. */
+    public static FermiLiteMemoryBudget getProcessBudget() { return processBudget; }
+
+    /** Native bytes currently held by this library's read buffers, read sets, and assembly data. */
+    public static long getUsedBytes() { return usedBytes.get(); }
+
+    /** Estimated peak native memory used to assemble a read set. */
+    public static long estimateFootprint( final long nReads, final long nBases ) {
+        return BYTES_PER_ASSEMBLY + BYTES_PER_READ*nReads + BYTES_PER_BASE*nBases;
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+    public Mode getMode() { return mode; }
+
+    /** Sum of the estimated footprints of the assemblies that are running. */
+    public synchronized long getReservedBytes() { return reservedBytes; }
+
+    /** Number of assemblies that are running. */
+    public synchronized int getNReservations() { return nReservations; }
+
+    /** Number of assemblies that have been turned away (in FAIL_FAST mode). */
+    public synchronized long getNRejected() { return nRejected; }
+
+    /** Number of assemblies that have had to wait (in BLOCK mode). */
+    public synchronized long getNBlocked() { return nBlocked; }
+
+    /**
+     * Reserve some native memory.  Close the reservation to release it.
+     * Blocks, or throws IllegalStateException, if there isn't enough room.
+     */
+    public Reservation reserve( final long nBytes ) {
+        if ( nBytes < 0 ) throw new IllegalArgumentException("nBytes must not be negative");
+        synchronized ( this ) {
+            if ( !fits(nBytes) ) {
+                if ( mode == Mode.FAIL_FAST ) {
+                    nRejected += 1;
+                    throw new IllegalStateException("Native memory budget exceeded:  " + nBytes +
+                            " bytes requested, but " + reservedBytes + " of " + maxBytes + " bytes are reserved.");
+                }
+                nBlocked += 1;
+                try {
+                    do {
+                        wait();
+                    } while ( !fits(nBytes) );
+                } catch ( final InterruptedException ie ) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for native memory.", ie);
+                }
+            }
+            reservedBytes += nBytes;
+            nReservations += 1;
+        }
+        return new Reservation(nBytes);
+    }
+
+    private boolean fits( final long nBytes ) {
+        return nBytes <= maxBytes - reservedBytes || (mode == Mode.BLOCK && nReservations == 0);
+    }
+
+    private synchronized void release( final long nBytes ) {
+        reservedBytes -= nBytes;
+        nReservations -= 1;
+        notifyAll();
+    }
+
+    // Run an assembly (or a batch of them) within a reservation from the process budget, if there is one.
+    static <T> T reserveForAssembly( final long nAssemblies, final long nReads, final long nBases,
+                                     final Supplier<T> assembly ) {
+        final FermiLiteMemoryBudget budget = processBudget;
+        if ( budget == null ) return assembly.get();
+        final Reservation reservation =
+                budget.reserve(estimateFootprint(nReads, nBases) + (nAssemblies - 1)*BYTES_PER_ASSEMBLY);
+        try {
+            return assembly.get();
+        } finally {
+            reservation.close();
+        }
+    }
+
+    // Reserve the footprint of a staged assembly from the process budget, or return null if there isn't a budget.
+    static Reservation reserveForStagedAssembly( final long nReads, final long nBases ) {
+        final FermiLiteMemoryBudget budget = processBudget;
+        return budget == null ? null : budget.reserve(estimateFootprint(nReads, nBases));
+    }
+
+    // Keep track of the native buffers we allocate and free.
+    static void allocated( final ByteBuffer buffer ) { allocated(buffer.capacity()); }
+    static void freed( final ByteBuffer buffer ) { freed(buffer.capacity()); }
+
+    // Keep track of other native memory, like read sets, that we hold on to between calls.
+    static void allocated( final long nBytes ) { usedBytes.addAndGet(nBytes); }
+    static void freed( final long nBytes ) { usedBytes.addAndGet(-nBytes); }
+
+    /** Some reserved native memory.  Closing it returns the memory to its budget. */
+    public final class Reservation implements AutoCloseable {
+        private final long nBytes;
+        private boolean released;
+
+        private Reservation( final long nBytes ) { this.nBytes = nBytes; }
+
+        public long getNBytes() { return nBytes; }
+
+        @Override
+        public void close() {
+            if ( !released ) {
+                released = true;
+                release(nBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Enumerates linear paths (candidate haplotypes) through the contig graph of an assembly.
+ *
+ * A path is a walk through oriented contigs:  from a contig in some orientation, the next contig is reached through
+ * one of the edges that leave its 3' end (in that orientation), and the next contig's orientation is given by the
+ * edge.  Each path starts at a source (an oriented contig with no predecessors) and runs until it reaches a sink,
+ * a contig that's already on the path, or the maximum path length.  A path and its reverse complement are reported
+ * just once.  Usually the two orientations of a component's contigs don't meet, and then one orientation is the
+ * reverse complement of the other, so just the orientation in which the component's first contig is forward gets
+ * searched.  (Inversions join the two orientations, and then both get searched, and the duplicates are dropped.)
+ * A component that's one big cycle (and so has no sources) is entered at its best-supported contig.
+ *
+ * The search is best-first:  partial paths are extended in order of the fewest reads supporting any of their contigs
+ * (and then of the total number of supporting reads), so the best-supported paths are found first, and the caps
+ * prune the rest.  The caps apply to each connected component of the graph separately, and the components are
+ * searched in parallel.  Enumerating the paths doesn't change anything, so an enumerator can be reused.
+ */
+public final class FermiLitePathEnumerator {
+    public static final int DEFAULT_MAX_PATHS = 128;
+    public static final int DEFAULT_MAX_PATH_LENGTH = 100000;
+    public static final int DEFAULT_MAX_BRANCHING = 4;
+    public static final int DEFAULT_MAX_EXPANSIONS = 100000;
+
+    private static final byte[] COMPLEMENT = new byte[256];
+    static {
+        Arrays.fill(COMPLEMENT, (byte)'N');
+        final String bases = "ACGTacgt";
+        final String complements = "TGCAtgca";
+        for ( int idx = 0; idx != bases.length(); ++idx ) {
+            COMPLEMENT[bases.charAt(idx)] = (byte)complements.charAt(idx);
+        }
+    }
+
+    private static final Comparator<PathNode> BEST_FIRST =
+            Comparator.<PathNode>comparingInt(node -> -node.minSupport)
+                    .thenComparingLong(node -> -node.totalSupport)
+                    .thenComparingInt(node -> node.serial);
+
+    private final FermiLiteAssemblyGraph graph;
+    private final IntFunction<byte[]> sequences;
+    private int maxPaths = DEFAULT_MAX_PATHS;
+    private int maxPathLength = DEFAULT_MAX_PATH_LENGTH;
+    private int maxBranching = DEFAULT_MAX_BRANCHING;
+    private int maxExpansions = DEFAULT_MAX_EXPANSIONS;
+
+    public FermiLitePathEnumerator( final FermiLiteAssembly assembly ) {
+        graph = new FermiLiteAssemblyGraph(assembly);
+        sequences = id -> assembly.getContig(id).getSequence();
+    }
+
+    /** The view must remain open while paths are enumerated. */
+    public FermiLitePathEnumerator( final FermiLiteAssemblyView view ) {
+        graph = new FermiLiteAssemblyGraph(view);
+        sequences = id -> view.getContig(id).getSequence();
+    }
+
+    /** maximum number of paths reported for each connected component */
+    public int getMaxPaths() { return maxPaths; }
+    public void setMaxPaths( final int maxPaths ) { this.maxPaths = checkPositive(maxPaths, "maxPaths"); }
+    /** a path is cut short (trimmed to this many bases, and marked as truncated) when its length reaches this limit */
+    public int getMaxPathLength() { return maxPathLength; }
+    public void setMaxPathLength( final int maxPathLength ) {
+        this.maxPathLength = checkPositive(maxPathLength, "maxPathLength");
+    }
+    /** maximum number of successors followed from each contig (the best supported ones) */
+    public int getMaxBranching() { return maxBranching; }
+    public void setMaxBranching( final int maxBranching ) {
+        this.maxBranching = checkPositive(maxBranching, "maxBranching");
+    }
+    /** maximum number of partial paths extended in each connected component, after which the search gives up */
+    public int getMaxExpansions() { return maxExpansions; }
+    public void setMaxExpansions( final int maxExpansions ) {
+        this.maxExpansions = checkPositive(maxExpansions, "maxExpansions");
+    }
+
+    public FermiLiteAssemblyGraph getGraph() { return graph; }
+
+    /**
+     * The paths through each connected component, best first.  The components are in order of their lowest contig id.
+     */
+    public List<Path> enumerate() {
+        final int[][] components = findComponents();
+        final int[] orientedRoots = findOrientedRoots();
+        return IntStream.range(0, components.length).parallel()
+                .mapToObj(componentIdx -> enumerate(componentIdx, components[componentIdx], orientedRoots))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    /** a path through oriented contigs */
+    public static final class Path {
+        private final int component;
+        private final int[] contigIds;
+        private final boolean[] contigRCs;
+        private final int[] overlapLens;
+        private final byte[] sequence;
+        private final int minSupport;
+        private final long totalSupport;
+        private final boolean truncated;
+
+        Path( final int component, final int[] contigIds, final boolean[] contigRCs, final int[] overlapLens,
+              final byte[] sequence, final int minSupport, final long totalSupport, final boolean truncated ) {
+            this.component = component;
+            this.contigIds = contigIds;
+            this.contigRCs = contigRCs;
+            this.overlapLens = overlapLens;
+            this.sequence = sequence;
+            this.minSupport = minSupport;
+            this.totalSupport = totalSupport;
+            this.truncated = truncated;
+        }
+
+        /** index of the connected component that contains the path */
+        public int getComponent() { return component; }
+        public int getNContigs() { return contigIds.length; }
+        /** id (index in the assembly) of the idx'th contig on the path */
+        public int getContigId( final int idx ) { return contigIds[idx]; }
+        /** whether the idx'th contig on the path is reverse-complemented */
+        public boolean isContigRC( final int idx ) { return contigRCs[idx]; }
+        /** overlap between the idx'th contig and the one before it (0 for the first):  negative for a gap */
+        public int getOverlapLen( final int idx ) { return overlapLens[idx]; }
+        /** the bases along the path.  gaps are filled with Ns. */
+        public byte[] getSequence() { return sequence; }
+        public int getLength() { return sequence.length; }
+        /** fewest reads supporting any contig on the path */
+        public int getMinSupportingReads() { return minSupport; }
+        /** total reads supporting the path's contigs */
+        public long getTotalSupportingReads() { return totalSupport; }
+        /** if the path was cut short (and its sequence trimmed) by the maximum path length */
+        public boolean isTruncated() { return truncated; }
+    }
+
+    // a partial path:  an oriented contig, and a link to the rest of the path
+    private static final class PathNode {
+        final PathNode parent;
+        final int contigId;
+        final boolean isRC;
+        final int overlapLen; // with the parent
+        final int depth;
+        final long length;
+        final int minSupport;
+        final long totalSupport;
+        final int serial;     // order of creation, to break ties
+
+        PathNode( final PathNode parent, final int contigId, final boolean isRC, final int overlapLen,
+                  final int contigLength, final int support, final int serial ) {
+            this.parent = parent;
+            this.contigId = contigId;
+            this.isRC = isRC;
+            this.overlapLen = overlapLen;
+            this.serial = serial;
+            if ( parent == null ) {
+                depth = 1;
+                length = contigLength;
+                minSupport = support;
+                totalSupport = support;
+            } else {
+                depth = parent.depth + 1;
+                length = parent.length + contigLength - Math.min(overlapLen, contigLength);
+                minSupport = Math.min(parent.minSupport, support);
+                totalSupport = parent.totalSupport + support;
+            }
+        }
+
+        boolean contains( final int id ) {
+            for ( PathNode node = this; node != null; node = node.parent ) {
+                if ( node.contigId == id ) return true;
+            }
+            return false;
+        }
+    }
+
+    private List<Path> enumerate( final int componentIdx, final int[] contigIds, final int[] orientedRoots ) {
+        // if no contig is joined to its own reverse complement, search just one orientation of the component
+        boolean split = true;
+        for ( final int id : contigIds ) {
+            if ( orientedRoots[2*id] == orientedRoots[2*id + 1] ) {
+                split = false;
+                break;
+            }
+        }
+        final PriorityQueue<PathNode> queue = new PriorityQueue<>(BEST_FIRST);
+        int canonicalRoot = split ? orientedRoots[2*contigIds[0]] : -1;
+        addSources(queue, contigIds, orientedRoots, canonicalRoot);
+        if ( queue.isEmpty() && split ) { // the sources are all in the other orientation
+            canonicalRoot = orientedRoots[2*contigIds[0] + 1];
+            addSources(queue, contigIds, orientedRoots, canonicalRoot);
+        }
+        if ( queue.isEmpty() ) { // a cycle:  start at the best-supported contig
+            int bestId = contigIds[0];
+            for ( final int id : contigIds ) {
+                if ( graph.getNSupportingReads(id) > graph.getNSupportingReads(bestId) ) bestId = id;
+            }
+            queue.add(new PathNode(null, bestId, split && orientedRoots[2*bestId] != canonicalRoot, 0,
+                                    graph.getContigLength(bestId), graph.getNSupportingReads(bestId), 0));
+        }
+        int serial = queue.size();
+
+        final List<Path> paths = new ArrayList<>();
+        final Set<String> seen = split ? null : new HashSet<>();
+        int[] successors = new int[8];
+        int nExpansions = 0;
+        while ( !queue.isEmpty() && paths.size() < maxPaths && nExpansions++ < maxExpansions ) {
+            final PathNode node = queue.poll();
+            final boolean truncated = node.length >= maxPathLength;
+            int nSuccessors = 0;
+            if ( !truncated ) {
+                // edges leaving the 3' end of the contig in this orientation, to contigs not already on the path,
+                // best-supported target first
+                final int end = graph.getEdgeEnd(node.contigId);
+                for ( int edge = graph.getEdgeStart(node.contigId); edge != end; ++edge ) {
+                    if ( graph.isEdgeRC(edge) == node.isRC && !node.contains(graph.getEdgeTarget(edge)) ) {
+                        if ( nSuccessors == successors.length ) {
+                            successors = Arrays.copyOf(successors, 2*nSuccessors);
+                        }
+                        final int support = graph.getNSupportingReads(graph.getEdgeTarget(edge));
+                        int idx = nSuccessors++;
+                        while ( idx > 0 &&
+                                graph.getNSupportingReads(graph.getEdgeTarget(successors[idx - 1])) < support ) {
+                            successors[idx] = successors[idx - 1];
+                            idx -= 1;
+                        }
+                        successors[idx] = edge;
+                    }
+                }
+            }
+            if ( nSuccessors == 0 ) {
+                final Path path = makePath(componentIdx, node, truncated);
+                if ( seen == null || seen.add(canonicalKey(path)) ) paths.add(path);
+                continue;
+            }
+            nSuccessors = Math.min(nSuccessors, maxBranching);
+            for ( int idx = 0; idx != nSuccessors; ++idx ) {
+                final int edge = successors[idx];
+                final int targetId = graph.getEdgeTarget(edge);
+                queue.add(new PathNode(node, targetId, graph.isEdgeTargetRC(edge), graph.getEdgeOverlapLen(edge),
+                                        graph.getContigLength(targetId), graph.getNSupportingReads(targetId),
+                                        serial++));
+            }
+        }
+        return paths;
+    }
+
+    // queue the sources (oriented contigs with no predecessors) in the half of the oriented graph with the given root,
+    // or in both halves if the root is -1
+    private void addSources( final PriorityQueue<PathNode> queue, final int[] contigIds,
+                             final int[] orientedRoots, final int root ) {
+        for ( final int id : contigIds ) {
+            for ( final boolean isRC : new boolean[]{false, true} ) {
+                if ( (root == -1 || orientedRoots[2*id + (isRC ? 1 : 0)] == root) && !hasSuccessor(id, !isRC) ) {
+                    queue.add(new PathNode(null, id, isRC, 0, graph.getContigLength(id),
+                                            graph.getNSupportingReads(id), queue.size()));
+                }
+            }
+        }
+    }
+
+    // whether an oriented contig has an edge leaving its 3' end.  (predecessors are the successors of the RC.)
+    private boolean hasSuccessor( final int id, final boolean isRC ) {
+        final int end = graph.getEdgeEnd(id);
+        for ( int edge = graph.getEdgeStart(id); edge != end; ++edge ) {
+            if ( graph.isEdgeRC(edge) == isRC ) return true;
+        }
+        return false;
+    }
+
+    private Path makePath( final int componentIdx, final PathNode last, final boolean truncated ) {
+        final int nContigs = last.depth;
+        final int[] contigIds = new int[nContigs];
+        final boolean[] contigRCs = new boolean[nContigs];
+        final int[] overlapLens = new int[nContigs];
+        int idx = nContigs;
+        for ( PathNode node = last; node != null; node = node.parent ) {
+            idx -= 1;
+            contigIds[idx] = node.contigId;
+            contigRCs[idx] = node.isRC;
+            overlapLens[idx] = node.overlapLen;
+        }
+        final byte[] sequence = new byte[(int)Math.min(truncated ? maxPathLength : Integer.MAX_VALUE - 8, last.length)];
+        int pos = 0;
+        for ( idx = 0; idx != nContigs && pos < sequence.length; ++idx ) {
+            final byte[] contigSeq = sequences.apply(contigIds[idx]);
+            final int overlapLen = overlapLens[idx];
+            int skip = 0;
+            if ( overlapLen > 0 ) {
+                skip = Math.min(overlapLen, contigSeq.length);
+            } else {
+                final int gapEnd = (int)Math.min(sequence.length, (long)pos - overlapLen);
+                Arrays.fill(sequence, pos, gapEnd, (byte)'N');
+                pos = gapEnd;
+            }
+            final int nBases = Math.min(contigSeq.length - skip, sequence.length - pos);
+            if ( contigRCs[idx] ) {
+                for ( int baseIdx = contigSeq.length - 1 - skip; pos != sequence.length && baseIdx >= 0; --baseIdx ) {
+                    sequence[pos++] = COMPLEMENT[contigSeq[baseIdx] & 0xff];
+                }
+            } else {
+                System.arraycopy(contigSeq, skip, sequence, pos, nBases);
+                pos += nBases;
+            }
+        }
+        return new Path(componentIdx, contigIds, contigRCs, overlapLens, sequence,
+                        last.minSupport, last.totalSupport, truncated);
+    }
+
+    // the same key for a path and its reverse complement
+    private static String canonicalKey( final Path path ) {
+        final int nContigs = path.getNContigs();
+        final StringBuilder forward = new StringBuilder();
+        final StringBuilder reverse = new StringBuilder();
+        for ( int idx = 0; idx != nContigs; ++idx ) {
+            forward.append(path.getContigId(idx)).append(path.isContigRC(idx) ? '-' : '+');
+            final int rcIdx = nContigs - 1 - idx;
+            reverse.append(path.getContigId(rcIdx)).append(path.isContigRC(rcIdx) ? '+' : '-');
+        }
+        final String forwardKey = forward.toString();
+        final String reverseKey = reverse.toString();
+        return forwardKey.compareTo(reverseKey) <= 0 ? forwardKey : reverseKey;
+    }
+
+    // the contig ids in each connected component, found by union-find
+    private int[][] findComponents() {
+        final int nContigs = graph.getNContigs();
+        final int[] parents = new int[nContigs];
+        for ( int id = 0; id != nContigs; ++id ) {
+            parents[id] = id;
+        }
+        for ( int id = 0; id != nContigs; ++id ) {
+            final int end = graph.getEdgeEnd(id);
+            for ( int edge = graph.getEdgeStart(id); edge != end; ++edge ) {
+                final int root1 = findRoot(parents, id);
+                final int root2 = findRoot(parents, graph.getEdgeTarget(edge));
+                if ( root1 < root2 ) parents[root2] = root1;
+                else parents[root1] = root2;
+            }
+        }
+        // each root is the lowest id in its component
+        final int[] componentIdxs = new int[nContigs];
+        final int[] componentSizes = new int[nContigs];
+        int nComponents = 0;
+        for ( int id = 0; id != nContigs; ++id ) {
+            final int root = findRoot(parents, id);
+            if ( root == id ) componentIdxs[id] = nComponents++;
+            else componentIdxs[id] = componentIdxs[root];
+            componentSizes[componentIdxs[id]] += 1;
+        }
+        final int[][] components = new int[nComponents][];
+        for ( int idx = 0; idx != nComponents; ++idx ) {
+            components[idx] = new int[componentSizes[idx]];
+            componentSizes[idx] = 0;
+        }
+        for ( int id = 0; id != nContigs; ++id ) {
+            final int componentIdx = componentIdxs[id];
+            components[componentIdx][componentSizes[componentIdx]++] = id;
+        }
+        return components;
+    }
+
+    // the root of each oriented contig (2*id for forward, 2*id+1 for RC) in the undirected oriented graph
+    private int[] findOrientedRoots() {
+        final int nContigs = graph.getNContigs();
+        final int[] parents = new int[2*nContigs];
+        for ( int idx = 0; idx != parents.length; ++idx ) {
+            parents[idx] = idx;
+        }
+        for ( int id = 0; id != nContigs; ++id ) {
+            final int end = graph.getEdgeEnd(id);
+            for ( int edge = graph.getEdgeStart(id); edge != end; ++edge ) {
+                final int root1 = findRoot(parents, 2*id + (graph.isEdgeRC(edge) ? 1 : 0));
+                final int root2 = findRoot(parents, 2*graph.getEdgeTarget(edge) + (graph.isEdgeTargetRC(edge) ? 1 : 0));
+                if ( root1 < root2 ) parents[root2] = root1;
+                else parents[root1] = root2;
+            }
+        }
+        for ( int idx = 0; idx != parents.length; ++idx ) {
+            parents[idx] = findRoot(parents, idx);
+        }
+        return parents;
+    }
+
+    private static int findRoot( final int[] parents, int id ) {
+        while ( parents[id] != id ) {
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+
+    private static int checkPositive( final int value, final String name ) {
+        if ( value < 1 ) throw new IllegalArgumentException(name + " must be positive.");
+        return value;
+    }
+}
@@ -0,0 +1,189 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Intermediate results of the stages of a fermi-lite assembly, held in native memory.
+ * These are produced and consumed by FermiLiteAssembler's staged API:
+ * loadReads, correctErrors, filterUnique, buildIndex, buildGraph, cleanGraph, and emitUnitigs.
+ * The options are adjusted for the reads (as fermi-lite does at the start of an assembly) just once, by loadReads,
+ * and every later stage uses those adjusted options, except for any option that has since been changed on the
+ * assembler, which is used as set.  So a staged assembly with unchanged options gives the same result as
+ * FermiLiteAssembler.createAssembly does on the same reads.
+ * The FM-index is left intact when a graph is built from it, so to try out different graph-building or cleaning
+ * options on the same reads, keep the Index and repeat the stages that follow:  that saves the correction,
+ * filtering, and indexing.  fermi-lite frees the graph as it emits the unitigs, and it has no way to copy a graph,
+ * so an OverlapGraph can be used just once.  Reads can be indexed as many times as you like.
+ * If there's a process memory budget (see FermiLiteMemoryBudget), loadReads reserves the footprint of a whole
+ * assembly of the reads, and the Reads, and each Index and OverlapGraph made from them, hold on to that one
+ * reservation:  it's released when the last of them is closed or consumed.
+ * Each of these must be closed (unless it has been consumed) to free its native memory.  None is thread-safe.
+ */
+public final class FermiLiteStages {
+    private FermiLiteStages() {}
+
+    /**
+     * The process memory budget's reservation for a staged assembly (null if there's no budget), and a count of the
+     * Reads, Index, and OverlapGraph objects that are holding on to it.
+     */
+    static final class Footprint {
+        private final FermiLiteMemoryBudget.Reservation reservation;
+        private int nHolders = 1;
+
+        Footprint( final FermiLiteMemoryBudget.Reservation reservation ) { this.reservation = reservation; }
+
+        synchronized Footprint hold() {
+            nHolders += 1;
+            return this;
+        }
+
+        synchronized void release() {
+            if ( --nHolders == 0 && reservation != null ) reservation.close();
+        }
+    }
+
+    /** A set of reads, which may have been error-corrected and filtered. */
+    public static final class Reads implements AutoCloseable {
+        private long handle;
+        private final int nReads;
+        private final long nNativeBytes; // roughly, the size of the native read set
+        private final ByteBuffer stageOpts;
+        private final Footprint footprint;
+        private boolean corrected;
+        private boolean filtered;
+        private float kmerCoverage;
+
+        Reads( final long handle, final int nReads, final long nNativeBytes, final ByteBuffer stageOpts,
+               final Footprint footprint ) {
+            this.handle = handle;
+            this.nReads = nReads;
+            this.nNativeBytes = nNativeBytes;
+            this.stageOpts = stageOpts;
+            this.footprint = footprint;
+            FermiLiteMemoryBudget.allocated(nNativeBytes);
+        }
+
+        public boolean isOpen() { return handle != 0; }
+        public int getNReads() { return nReads; }
+        public boolean isCorrected() { return corrected; }
+        public boolean isFiltered() { return filtered; }
+        /** the k-mer coverage found while filtering, which is used to adjust graph cleaning (0 if unfiltered) */
+        public float getKmerCoverage() { return kmerCoverage; }
+
+        @Override
+        public void close() {
+            if ( handle != 0 ) {
+                FermiLiteAssembler.destroyReads(handle);
+                FermiLiteMemoryBudget.freed(nNativeBytes);
+                footprint.release();
+                handle = 0;
+            }
+        }
+
+        long getHandle() {
+            if ( handle == 0 ) throw new IllegalStateException("The reads have been closed.");
+            return handle;
+        }
+
+        /** the options as they were when the reads were loaded, followed by those options as adjusted */
+        ByteBuffer getStageOpts() { return stageOpts; }
+        Footprint getFootprint() { return footprint; }
+
+        void setCorrected() { corrected = true; }
+
+        void setFiltered( final float kmerCoverage ) {
+            filtered = true;
+            this.kmerCoverage = kmerCoverage;
+        }
+    }
+
+    /** An FM-index of a set of reads, from which any number of overlap graphs can be built. */
+    public static final class Index implements AutoCloseable {
+        private long handle;
+        private boolean open = true;
+        private final float kmerCoverage;
+        private final ByteBuffer stageOpts;
+        private final Footprint footprint;
+
+        // a handle of 0 represents the index of an empty set of reads
+        Index( final long handle, final float kmerCoverage, final ByteBuffer stageOpts, final Footprint footprint ) {
+            this.handle = handle;
+            this.kmerCoverage = kmerCoverage;
+            this.stageOpts = stageOpts;
+            this.footprint = footprint;
+        }
+
+        public boolean isOpen() { return open; }
+
+        @Override
+        public void close() {
+            if ( open ) {
+                if ( handle != 0 ) FermiLiteAssembler.destroyIndex(handle);
+                footprint.release();
+                handle = 0;
+                open = false;
+            }
+        }
+
+        float getKmerCoverage() { return kmerCoverage; }
+        ByteBuffer getStageOpts() { return stageOpts; }
+        Footprint getFootprint() { return footprint; }
+
+        long getHandle() {
+            if ( !open ) throw new IllegalStateException("The index has been closed.");
+            return handle;
+        }
+    }
+
+    /** An overlap graph (fermi-lite's "mag"), which may have been cleaned. */
+    public static final class OverlapGraph implements AutoCloseable {
+        private long handle;
+        private boolean open = true;
+        private final float kmerCoverage;
+        private final ByteBuffer stageOpts;
+        private final Footprint footprint;
+        private int nCleanings;
+
+        // a handle of 0 represents the graph of an empty set of reads
+        OverlapGraph( final long handle, final float kmerCoverage, final ByteBuffer stageOpts,
+                      final Footprint footprint ) {
+            this.handle = handle;
+            this.kmerCoverage = kmerCoverage;
+            this.stageOpts = stageOpts;
+            this.footprint = footprint;
+        }
+
+        public boolean isOpen() { return open; }
+        /** number of times that cleanGraph has been applied */
+        public int getNCleanings() { return nCleanings; }
+
+        @Override
+        public void close() {
+            if ( open ) {
+                if ( handle != 0 ) FermiLiteAssembler.destroyGraph(handle);
+                footprint.release();
+                handle = 0;
+                open = false;
+            }
+        }
+
+        float getKmerCoverage() { return kmerCoverage; }
+        ByteBuffer getStageOpts() { return stageOpts; }
+        Footprint getFootprint() { return footprint; }
+
+        long getHandle() {
+            if ( !open ) throw new IllegalStateException("The graph has been closed or consumed.");
+            return handle;
+        }
+
+        void setCleaned() { nCleanings += 1; }
+
+        /** Hands over the native graph, and its hold on the footprint:  this object is closed. */
+        long consume() {
+            final long result = getHandle();
+            handle = 0;
+            open = false;
+            return result;
+        }
+    }
+}
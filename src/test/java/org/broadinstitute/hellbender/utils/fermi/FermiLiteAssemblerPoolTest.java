@@ -0,0 +1,183 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+public final class FermiLiteAssemblerPoolTest {
+    private static final String seq =
+            "AATTTGCAAAAGGCCTAATAATCGGCAGAGTTGGTGCCTCTGGAGGTGAGTGTGAGGGGGATCTAATAAAAGAAGGTTTA"+
+            "ACTGAAGTCTTTTAAGAAACAGGATTTTCACATCTAGTAATGTGACTCTTTTACTGAAATAACTAAAAATGCAGGAATCC"+
+            "AGAGAGATAAGAAGAGTAATAAAAACAAGTGTCTATGAAAAGACACCTATAAGAATGTTCATAATAGTTTATTCATAATA";
+
+    private static List<byte[]> tileReads( final int readLen ) {
+        final List<byte[]> reads = new ArrayList<>();
+        for ( int start = 0; start + readLen <= seq.length(); ++start ) {
+            reads.add(seq.substring(start, start + readLen).getBytes());
+        }
+        return reads;
+    }
+
+    private static FermiLiteAssembler.BasesAndQuals toBasesAndQuals( final byte[] bases ) {
+        final byte[] quals = new byte[bases.length];
+        Arrays.fill(quals, (byte)30);
+        return new FermiLiteAssembler.BasesAndQuals() {
+            @Override public byte[] getBases() { return bases; }
+            @Override public byte[] getQuals() { return quals; }
+        };
+    }
+
+    @Test
+    public void testPoolMatchesSingleAssembler() {
+        final List<byte[]> reads = tileReads(100);
+        final FermiLiteAssembly expected;
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            expected = assembler.createAssembly(reads, FermiLiteAssemblerPoolTest::toBasesAndQuals);
+        }
+        try ( final FermiLiteAssembler template = new FermiLiteAssembler();
+              final FermiLiteAssemblerPool pool =
+                      FermiLiteAssemblerPool.withInterAssemblyParallelism(template, 3, 2) ) {
+            Assert.assertEquals(pool.getNAssemblers(), 3);
+            final List<CompletableFuture<FermiLiteAssembly>> futures = new ArrayList<>();
+            for ( int idx = 0; idx != 20; ++idx ) {
+                futures.add(pool.submit(reads, FermiLiteAssemblerPoolTest::toBasesAndQuals));
+            }
+            for ( final CompletableFuture<FermiLiteAssembly> future : futures ) {
+                final FermiLiteAssembly assembly = future.join();
+                Assert.assertEquals(assembly.getNContigs(), expected.getNContigs());
+                for ( int idx = 0; idx != assembly.getNContigs(); ++idx ) {
+                    Assert.assertEquals(assembly.getContig(idx).getSequence(), expected.getContig(idx).getSequence());
+                }
+            }
+        }
+    }
+
+    // waits for the latch to open (tolerating no interruptions)
+    private static void await( final CountDownLatch latch ) {
+        try {
+            latch.await();
+        } catch ( final InterruptedException ie ) {
+            throw new IllegalStateException(ie);
+        }
+    }
+
+    // a conversion to BasesAndQuals that doesn't start until the gate opens
+    private static Function<byte[],FermiLiteAssembler.BasesAndQuals> waitFor( final CountDownLatch gate ) {
+        return bases -> {
+            await(gate);
+            return toBasesAndQuals(bases);
+        };
+    }
+
+    @Test
+    public void testOptionsAreCopiedFromTemplate() {
+        try ( final FermiLiteAssembler template = new FermiLiteAssembler() ) {
+            template.setMinAsmOverlap(41);
+            template.setCleaningDRatio1(.5f);
+            try ( final FermiLiteAssembler copy = new FermiLiteAssembler(template) ) {
+                Assert.assertEquals(copy.getMinAsmOverlap(), 41);
+                Assert.assertEquals(copy.getCleaningDRatio1(), .5f);
+            }
+
+            // each task holds its assembler until all of them are busy, so that we see every assembler in the pool
+            final int nAssemblers = 3;
+            final CountDownLatch allBusy = new CountDownLatch(nAssemblers);
+            try ( final FermiLiteAssemblerPool pool = new FermiLiteAssemblerPool(template, nAssemblers, 2, 0) ) {
+                final List<CompletableFuture<FermiLiteAssembler>> futures = new ArrayList<>();
+                for ( int idx = 0; idx != nAssemblers; ++idx ) {
+                    futures.add(pool.submitTask(assembler -> {
+                        allBusy.countDown();
+                        await(allBusy);
+                        return assembler;
+                    }));
+                }
+                final Set<FermiLiteAssembler> assemblers = new HashSet<>();
+                for ( final CompletableFuture<FermiLiteAssembler> future : futures ) {
+                    final FermiLiteAssembler assembler = future.join();
+                    Assert.assertNotSame(assembler, template);
+                    Assert.assertEquals(assembler.getMinAsmOverlap(), 41);
+                    Assert.assertEquals(assembler.getCleaningDRatio1(), .5f);
+                    Assert.assertEquals(assembler.getNThreads(), 2);
+                    assemblers.add(assembler);
+                }
+                Assert.assertEquals(assemblers.size(), nAssemblers);
+            }
+        }
+    }
+
+    @Test
+    public void testSubmitBlocksWhenQueueIsFull() throws Exception {
+        final List<byte[]> reads = tileReads(100);
+        final CountDownLatch gate = new CountDownLatch(1);
+        try ( final FermiLiteAssembler template = new FermiLiteAssembler();
+              final FermiLiteAssemblerPool pool = new FermiLiteAssemblerPool(template, 2, 1, 1) ) {
+            try {
+                // two assemblies occupy the assemblers, and one fills the queue
+                final List<CompletableFuture<FermiLiteAssembly>> futures = new ArrayList<>();
+                for ( int idx = 0; idx != 3; ++idx ) {
+                    futures.add(pool.submit(reads, waitFor(gate)));
+                }
+                Assert.assertEquals(pool.getNPending(), 3);
+                final CompletableFuture<CompletableFuture<FermiLiteAssembly>> submitter =
+                        CompletableFuture.supplyAsync(() ->
+                                pool.submit(reads, FermiLiteAssemblerPoolTest::toBasesAndQuals));
+                try {
+                    submitter.get(200, TimeUnit.MILLISECONDS);
+                    Assert.fail("submit should have blocked");
+                } catch ( final TimeoutException te ) {
+                    // expected
+                }
+                Assert.assertEquals(pool.getNPending(), 3);
+
+                gate.countDown();
+                futures.add(submitter.get(1, TimeUnit.MINUTES));
+                for ( final CompletableFuture<FermiLiteAssembly> future : futures ) {
+                    Assert.assertTrue(future.join().getNContigs() > 0);
+                }
+            } finally {
+                gate.countDown(); // don't leave the assemblers waiting, or close would never return
+            }
+        }
+    }
+
+    @Test
+    public void testFailedAssemblyReturnsAssembler() {
+        final List<byte[]> reads = tileReads(100);
+        try ( final FermiLiteAssembler template = new FermiLiteAssembler();
+              final FermiLiteAssemblerPool pool = new FermiLiteAssemblerPool(template, 1, 1, 0) ) {
+            final CompletableFuture<FermiLiteAssembly> failure = pool.submit(reads, bases -> {
+                throw new IllegalArgumentException("unreadable read");
+            });
+            try {
+                failure.join();
+                Assert.fail("the assembly should have failed");
+            } catch ( final CompletionException ce ) {
+                Assert.assertTrue(ce.getCause() instanceof IllegalArgumentException);
+            }
+
+            // the pool's only assembler must have been returned to it
+            Assert.assertTrue(pool.submit(reads, FermiLiteAssemblerPoolTest::toBasesAndQuals).join().getNContigs() > 0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubmitAfterClose() {
+        final FermiLiteAssemblerPool pool;
+        try ( final FermiLiteAssembler template = new FermiLiteAssembler() ) {
+            pool = FermiLiteAssemblerPool.withIntraAssemblyParallelism(template, 2, 1);
+        }
+        pool.close();
+        pool.submit(tileReads(100), FermiLiteAssemblerPoolTest::toBasesAndQuals);
+    }
+}
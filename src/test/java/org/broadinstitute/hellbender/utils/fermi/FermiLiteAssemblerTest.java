@@ -1,15 +1,20 @@
 package org.broadinstitute.hellbender.utils.fermi;
 
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
 public final class FermiLiteAssemblerTest {
-    private static final String expectedContig =
+    static final String expectedContig =
             "AATTTGCAAAAGGCCTAATAATCGGCAGAGTTGGTGCCTCTGGAGGTGAGTGTGAGGGGGATCTAATAAAAGAAGGTTTA"+
             "ACTGAAGTCTTTTAAGAAACAGGATTTTCACATCTAGTAATGTGACTCTTTTACTGAAATAACTAAAAATGCAGGAATCC"+
             "AGAGAGATAAGAAGAGTAATAAAAACAAGTGTCTATGAAAAGACACCTATAAGAATGTTCATAATAGTTTATTCATAATA"+
@@ -33,7 +38,7 @@ public final class FermiLiteAssemblerTest {
             "CTAATTAATGGCTGATGATCTGAGATGGAACAGTTTCATCCTGAAACCATCCCCCATGCCACTGGTCCATATATATATAT"+
             "ATATATATATATATATATATATATATATAT";
 
-    private static List<FakeRead> genReads( final String seq, final int coverage, final int readLen ) {
+    static List<FakeRead> genReads( final String seq, final int coverage, final int readLen ) {
         final int seqLen = seq.length();
         final int nReads = coverage * seqLen / readLen + 1;
         final List<FakeRead> reads = new ArrayList<>(nReads);
@@ -58,7 +63,7 @@ public final class FermiLiteAssemblerTest {
         }
     }
 
-    private static final class FakeRead implements FermiLiteAssembler.BasesAndQuals {
+    static final class FakeRead implements FermiLiteAssembler.BasesAndQuals {
         final byte[] seq;
         final byte[] quals;
 
@@ -88,4 +93,376 @@ public final class FermiLiteAssemblerTest {
         Assert.assertEquals(connection.isRC(), false);
         Assert.assertEquals(connection.isTargetRC(), true);
     }
+
+    @Test
+    public void testBatchAssembly() {
+        final int readLen = 151;
+        final List<List<FakeRead>> readSets = new ArrayList<>();
+        readSets.add(genReads(expectedContig, 30, readLen));
+        readSets.add(new ArrayList<>());
+        readSets.add(genReads(expectedContig, 20, readLen));
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.setNThreads(2);
+            final List<FermiLiteAssembly> assemblies = assembler.createAssemblies(readSets);
+            Assert.assertEquals(assemblies.size(), readSets.size());
+            Assert.assertEquals(assemblies.get(1).getNContigs(), 0);
+            for ( final int idx : new int[]{0, 2} ) {
+                final FermiLiteAssembly assembly = assemblies.get(idx);
+                Assert.assertEquals(assembly.getNContigs(), 1);
+                Assert.assertEquals(assembly.getContig(0).getSequence(), expectedContig.getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testReadBufferReuse() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        final int[] nCalls = new int[1];
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.reserveReadCapacity(reads.size(), (long)reads.size()*readLen);
+            final int capacity = assembler.getReadCapacity();
+            for ( int pass = 0; pass != 2; ++pass ) {
+                nCalls[0] = 0;
+                final FermiLiteAssembly assembly =
+                        assembler.createAssembly(reads, read -> { nCalls[0] += 1; return read; });
+                Assert.assertEquals(nCalls[0], reads.size());
+                Assert.assertEquals(assembly.getNContigs(), 1);
+                Assert.assertEquals(assembler.getReadCapacity(), capacity);
+            }
+        }
+    }
+
+    @Test
+    public void testAssemblyView() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        final FermiLiteAssemblyView.Contig contig;
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteAssemblyView view = assembler.createAssemblyView(reads) ) {
+            Assert.assertEquals(view.getNContigs(), 1);
+            Assert.assertEquals(view.computeN50(), expectedContig.length());
+            contig = view.getContig(0);
+            Assert.assertEquals(contig.getLength(), expectedContig.length());
+            Assert.assertEquals(contig.getBase(0), (byte)expectedContig.charAt(0));
+            Assert.assertEquals(contig.getSequence(), expectedContig.getBytes());
+            Assert.assertEquals(contig.getNConnections(), 1);
+            Assert.assertEquals(view.getNEdges(), 1L);
+            Assert.assertEquals(contig.getConnectionTarget(0), 0);
+            Assert.assertEquals(contig.getConnectionOverlapLen(0), 42);
+            Assert.assertEquals(contig.isConnectionRC(0), false);
+            Assert.assertEquals(contig.isConnectionTargetRC(0), true);
+
+            final FermiLiteAssembly assembly = view.toAssembly();
+            Assert.assertEquals(assembly.getContig(0).getSequence(), contig.getSequence());
+            Assert.assertEquals(assembly.getContig(0).getPerBaseCoverage(), contig.getPerBaseCoverage());
+        }
+        try {
+            contig.getLength();
+            Assert.fail("contig of a closed view should be unusable");
+        } catch ( final IllegalStateException ise ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStagedAssembly() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteStages.Reads nativeReads = assembler.loadReads(reads) ) {
+            Assert.assertEquals(nativeReads.getNReads(), reads.size());
+            assembler.correctErrors(nativeReads);
+            assembler.filterUnique(nativeReads);
+            final FermiLiteAssembly assembly;
+            try ( final FermiLiteStages.Index index = assembler.buildIndex(nativeReads);
+                  final FermiLiteStages.OverlapGraph graph = assembler.buildGraph(index) ) {
+                Assert.assertTrue(index.isOpen());
+                assembler.cleanGraph(graph);
+                assembly = assembler.emitUnitigs(graph);
+                Assert.assertFalse(graph.isOpen());
+            }
+            Assert.assertEquals(assembly.getNContigs(), 1);
+            Assert.assertEquals(assembly.getContig(0).getSequence(), expectedContig.getBytes());
+
+            // the corrected reads can be reassembled with other options
+            for ( final int minOverlap : new int[]{ 5, 20 } ) {
+                assembler.setCleaningMinOverlap(minOverlap);
+                final FermiLiteAssembly reassembly = assembler.createAssembly(nativeReads);
+                Assert.assertEquals(reassembly.getNContigs(), 1);
+                Assert.assertEquals(reassembly.getContig(0).getSequence(), expectedContig.getBytes());
+            }
+        }
+    }
+
+    // the options are adjusted for the reads just once, so a staged assembly matches a monolithic one
+    @Test
+    public void testStagedMatchesCreateAssembly() throws IOException {
+        final List<FakeRead> reads = genReads(expectedContig, 30, 151);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.setCleaningMinOverlap(20);
+            final StringWriter expected = new StringWriter();
+            assembler.createAssembly(reads).writeGFA(expected);
+            try ( final FermiLiteStages.Reads nativeReads = assembler.loadReads(reads) ) {
+                final StringWriter actual = new StringWriter();
+                assembler.createAssembly(nativeReads).writeGFA(actual);
+                Assert.assertEquals(actual.toString(), expected.toString());
+                final StringWriter again = new StringWriter();
+                assembler.createAssembly(nativeReads).writeGFA(again);
+                Assert.assertEquals(again.toString(), expected.toString());
+            }
+        }
+    }
+
+    // an index survives building a graph, so that graphs can be built from it with other options
+    @Test
+    public void testReusedIndex() throws IOException {
+        final List<FakeRead> reads = genReads(expectedContig, 30, 151);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteStages.Reads nativeReads = assembler.loadReads(reads) ) {
+            assembler.correctErrors(nativeReads);
+            assembler.filterUnique(nativeReads);
+            try ( final FermiLiteStages.Index index = assembler.buildIndex(nativeReads) ) {
+                for ( final int minOverlap : new int[]{ 5, 20, 5 } ) {
+                    assembler.setCleaningMinOverlap(minOverlap);
+                    final StringWriter expected = new StringWriter();
+                    assembler.createAssembly(nativeReads).writeGFA(expected);
+                    final StringWriter actual = new StringWriter();
+                    try ( final FermiLiteStages.OverlapGraph graph = assembler.buildGraph(index) ) {
+                        assembler.cleanGraph(graph);
+                        assembler.emitUnitigs(graph).writeGFA(actual);
+                    }
+                    Assert.assertEquals(actual.toString(), expected.toString());
+                    Assert.assertTrue(index.isOpen());
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosedIndex() {
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteStages.Reads nativeReads = assembler.loadReads(genReads(expectedContig, 30, 151)) ) {
+            final FermiLiteStages.Index index = assembler.buildIndex(nativeReads);
+            index.close();
+            assembler.buildGraph(index);
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            Assert.assertNull(assembler.getLastMetrics());
+            final FermiLiteAssemblyMetrics totalsBefore = FermiLiteAssemblyMetrics.getProcessTotals();
+            final FermiLiteAssembly assembly = assembler.createAssembly(reads);
+            final FermiLiteAssemblyMetrics metrics = assembler.getLastMetrics();
+            Assert.assertEquals(metrics.getNAssemblies(), 1L);
+            Assert.assertEquals(metrics.getNReads(), (long)reads.size());
+            Assert.assertEquals(metrics.getNBases(), (long)reads.size()*readLen);
+            Assert.assertEquals(metrics.getNContigs(), (long)assembly.getNContigs());
+            long nEdges = 0;
+            for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+                nEdges += contig.getConnections().size();
+            }
+            Assert.assertEquals(metrics.getNEdges(), nEdges);
+            Assert.assertTrue(metrics.getResultBytes() > 0);
+            long stageNanos = 0;
+            for ( final FermiLiteAssemblyMetrics.Stage stage : FermiLiteAssemblyMetrics.Stage.values() ) {
+                Assert.assertTrue(metrics.getStageNanos(stage) >= 0);
+                stageNanos += metrics.getStageNanos(stage);
+            }
+            Assert.assertTrue(stageNanos > 0);
+            Assert.assertTrue(stageNanos <= metrics.getNativeNanos());
+            final FermiLiteAssemblyMetrics totalsAfter = FermiLiteAssemblyMetrics.getProcessTotals();
+            Assert.assertTrue(totalsAfter.getNAssemblies() >= totalsBefore.getNAssemblies() + 1);
+            Assert.assertTrue(totalsAfter.getNReads() >= totalsBefore.getNReads() + reads.size());
+
+            final List<List<FakeRead>> readSets = new ArrayList<>();
+            readSets.add(reads);
+            readSets.add(reads);
+            assembler.createAssemblies(readSets);
+            final FermiLiteAssemblyMetrics batchMetrics = assembler.getLastMetrics();
+            Assert.assertEquals(batchMetrics.getNAssemblies(), 2L);
+            Assert.assertEquals(batchMetrics.getNReads(), 2L*reads.size());
+        }
+    }
+
+    @Test
+    public void testBackend() {
+        final String requested = System.getProperty("LIBFML_BACKEND", FermiLiteBackend.JNI);
+        final String backendName = FermiLiteAssembler.getBackendName();
+        // in strict mode, asking for a backend that isn't available is an error, so we get the one we asked for
+        if ( Boolean.getBoolean(FermiLiteBackend.STRICT_PROPERTY) ) Assert.assertEquals(backendName, requested);
+        // otherwise, we get what we asked for, or JNI
+        else if ( !backendName.equals(FermiLiteBackend.JNI) ) Assert.assertEquals(backendName, requested);
+    }
+
+    // the FFM backend must give just the same assembly as JNI does
+    @Test
+    public void testFFMBackendMatchesJNI() throws IOException {
+        FermiLiteAssembler.getBackendName(); // load the native library
+        final FermiLiteBackend ffm = FermiLiteBackend.createFFM();
+        if ( ffm == null ) throw new SkipException("The FFM backend isn't available.");
+        final List<FakeRead> reads = genReads(expectedContig, 30, 151);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.setCleaningMinOverlap(20);
+            final FermiLiteAssembly jniAssembly = assembler.createAssembly(null, reads, read -> read);
+            final FermiLiteAssembly ffmAssembly = assembler.createAssembly(ffm, reads, read -> read);
+            final FermiLiteAssemblyMetrics metrics = assembler.getLastMetrics();
+            Assert.assertEquals(metrics.getNReads(), (long)reads.size());
+            Assert.assertTrue(metrics.getStageNanos(FermiLiteAssemblyMetrics.Stage.INDEX) > 0);
+            // the result bytes include each contig's sequence and coverage
+            long nContigBytes = 0;
+            for ( final FermiLiteAssembly.Contig contig : ffmAssembly.getContigs() ) {
+                nContigBytes += 2L*contig.getSequence().length;
+            }
+            Assert.assertTrue(metrics.getResultBytes() > nContigBytes);
+            Assert.assertEquals(ffmAssembly.getNContigs(), jniAssembly.getNContigs());
+            for ( int idx = 0; idx != jniAssembly.getNContigs(); ++idx ) {
+                final FermiLiteAssembly.Contig expected = jniAssembly.getContig(idx);
+                final FermiLiteAssembly.Contig actual = ffmAssembly.getContig(idx);
+                Assert.assertEquals(actual.getSequence(), expected.getSequence());
+                Assert.assertEquals(actual.getPerBaseCoverage(), expected.getPerBaseCoverage());
+                Assert.assertEquals(actual.getNSupportingReads(), expected.getNSupportingReads());
+            }
+            // the GFA has every connection, with its overlap and orientations
+            final StringWriter jniGFA = new StringWriter();
+            jniAssembly.writeGFA(jniGFA);
+            final StringWriter ffmGFA = new StringWriter();
+            ffmAssembly.writeGFA(ffmGFA);
+            Assert.assertEquals(ffmGFA.toString(), jniGFA.toString());
+        }
+    }
+
+    @Test
+    public void testSession() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteAssemblySession session = assembler.openSession() ) {
+            final FermiLiteAssembly expected = assembler.createAssembly(reads);
+            for ( int start = 0; start < reads.size(); start += 100 ) {
+                session.addReads(reads.subList(start, Math.min(start + 100, reads.size())));
+            }
+            Assert.assertEquals(session.getNReads(), (long)reads.size());
+            Assert.assertEquals(session.getNBases(), (long)reads.size()*readLen);
+            final FermiLiteAssembly assembly = session.assemble();
+            Assert.assertEquals(assembly.getNContigs(), expected.getNContigs());
+            Assert.assertEquals(new String(assembly.getContig(0).getSequence()),
+                                new String(expected.getContig(0).getSequence()));
+            Assert.assertEquals(assembler.getLastMetrics().getNReads(), (long)reads.size());
+
+            // the session is left empty, and can be reused
+            Assert.assertEquals(session.getNReads(), 0L);
+            Assert.assertEquals(session.assemble().getNContigs(), 0);
+            session.addReads(reads);
+            Assert.assertEquals(session.assemble().getNContigs(), expected.getNContigs());
+        }
+    }
+
+    // a read whose bases are packed 2 to a byte, as in a BAM record
+    private static final class BAMRead implements FermiLiteAssembler.PackedRead {
+        final int length;
+        final byte[] packedBases;
+        final byte[] quals;
+
+        public BAMRead( final byte[] seq, final boolean hasQuals ) {
+            length = seq.length;
+            packedBases = new byte[(length + 1)/2];
+            for ( int idx = 0; idx != length; ++idx ) {
+                final int code = "=ACMGRSVTWYHKDBN".indexOf(seq[idx]);
+                packedBases[idx/2] |= (idx & 1) == 0 ? code << 4 : code;
+            }
+            quals = hasQuals ? new FakeRead(seq).getQuals() : null;
+        }
+
+        @Override public int getLength() { return length; }
+        @Override public void putBases( final ByteBuffer buffer ) {
+            FermiLiteAssembler.putBAMBases(buffer, packedBases, 0, length);
+        }
+        @Override public boolean putQuals( final ByteBuffer buffer ) {
+            if ( quals == null ) return false;
+            buffer.put(quals);
+            return true;
+        }
+    }
+
+    @Test
+    public void testPutBAMBases() {
+        final String bases = "=ACMGRSVTWYHKDBNACG";
+        final ByteBuffer buffer = ByteBuffer.allocate(bases.length());
+        new BAMRead(bases.getBytes(), false).putBases(buffer);
+        Assert.assertEquals(new String(buffer.array()), bases);
+    }
+
+    @Test
+    public void testPackedReads() {
+        final int readLen = 151;
+        final List<FakeRead> reads = genReads(expectedContig, 30, readLen);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            final FermiLiteAssembly expected = assembler.createAssembly(reads);
+            for ( final boolean hasQuals : new boolean[]{true, false} ) {
+                final FermiLiteAssembly assembly = assembler.createAssemblyFromPackedReads(reads,
+                        read -> new BAMRead(read.getBases(), hasQuals));
+                Assert.assertEquals(assembly.getNContigs(), expected.getNContigs());
+                Assert.assertEquals(new String(assembly.getContig(0).getSequence()),
+                                    new String(expected.getContig(0).getSequence()));
+                Assert.assertEquals(assembler.getLastMetrics().getNBases(), (long)reads.size()*readLen);
+            }
+            try ( final FermiLiteAssemblySession session = assembler.openSession() ) {
+                session.addReads(reads.subList(0, 100));
+                session.addPackedReads(reads.subList(100, reads.size()), read -> new BAMRead(read.getBases(), false));
+                Assert.assertEquals(session.assemble().getNContigs(), expected.getNContigs());
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPackedReadTooShort() {
+        final FermiLiteAssembler.PackedRead read = new FermiLiteAssembler.PackedRead() {
+            @Override public int getLength() { return 10; }
+            @Override public void putBases( final ByteBuffer buffer ) { buffer.put("ACGT".getBytes()); }
+            @Override public boolean putQuals( final ByteBuffer buffer ) { return false; }
+        };
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.createAssemblyFromPackedReads(Arrays.asList(read, read));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPackedReadTooLong() {
+        final FermiLiteAssembler.PackedRead read = new FermiLiteAssembler.PackedRead() {
+            @Override public int getLength() { return 2; }
+            @Override public void putBases( final ByteBuffer buffer ) { buffer.put("ACGT".getBytes()); }
+            @Override public boolean putQuals( final ByteBuffer buffer ) { return false; }
+        };
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.createAssemblyFromPackedReads(Arrays.asList(read, read));
+        }
+    }
+
+    // a put method that moves the buffer back to overwrite the bases is caught by where it leaves the buffer
+    @Test
+    public void testPackedReadCantOverwrite() {
+        final FermiLiteAssembler.PackedRead read = new FermiLiteAssembler.PackedRead() {
+            @Override public int getLength() { return 4; }
+            @Override public void putBases( final ByteBuffer buffer ) { buffer.put("ACGT".getBytes()); }
+            @Override public boolean putQuals( final ByteBuffer buffer ) {
+                final int qualsStart = buffer.position();
+                Assert.assertEquals(buffer.limit(), qualsStart + 4);
+                Assert.assertEquals(buffer.get(qualsStart - 4), (byte)'A');
+                buffer.position(qualsStart - 4);
+                buffer.put("TTTT".getBytes());
+                return true;
+            }
+        };
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            assembler.createAssemblyFromPackedReads(Collections.singletonList(read));
+            Assert.fail("A put method that left the buffer in the wrong place was accepted.");
+        } catch ( final IllegalArgumentException iae ) {
+            // expected
+        }
+    }
 }
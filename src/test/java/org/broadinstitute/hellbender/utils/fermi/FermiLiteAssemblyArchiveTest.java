@@ -0,0 +1,154 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public final class FermiLiteAssemblyArchiveTest {
+    private static String toGFA( final FermiLiteAssembly assembly ) throws IOException {
+        final StringWriter writer = new StringWriter();
+        assembly.writeGFA(writer);
+        return writer.toString();
+    }
+
+    private static File createArchive( final FermiLiteAssembly assembly ) throws IOException {
+        final File file = File.createTempFile("assemblies", ".fmla");
+        file.deleteOnExit();
+        try ( final FermiLiteAssemblyArchive.Writer writer = new FermiLiteAssemblyArchive.Writer(file.toPath()) ) {
+            writer.add("bubble", assembly);
+            writer.add("chr1:100-200", "chr1", 100, 200, assembly);
+            writer.add("chr1:150-400", "chr1", 150, 400, assembly);
+            writer.add("chr2:100-200", "chr2", 100, 200, assembly);
+        }
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final File file = createArchive(assembly);
+        try ( final FermiLiteAssemblyArchive archive = FermiLiteAssemblyArchive.open(file.toPath()) ) {
+            Assert.assertEquals(archive.getNAssemblies(), 4);
+            Assert.assertEquals(archive.getEntries().get(0).getKey(), "bubble");
+            Assert.assertFalse(archive.getEntry("bubble").hasInterval());
+            Assert.assertNull(archive.getEntry("nonesuch"));
+            // the gap (negative overlap) between tig1 and tig3 survives the trip
+            Assert.assertEquals(toGFA(archive.readAssembly("bubble")), toGFA(assembly));
+            try ( final FermiLiteAssemblyView view = archive.openView("chr2:100-200") ) {
+                Assert.assertEquals(view.getNContigs(), assembly.getNContigs());
+                Assert.assertEquals(view.getNEdges(), 5L);
+                Assert.assertEquals(view.getContig(3).getSequence(), assembly.getContig(3).getSequence());
+            }
+        }
+    }
+
+    @Test
+    public void testIntervals() throws IOException {
+        final File file = createArchive(FermiLiteAssemblyGraphTest.makeBubble());
+        try ( final FermiLiteAssemblyArchive archive = FermiLiteAssemblyArchive.open(file.toPath()) ) {
+            final List<FermiLiteAssemblyArchive.Entry> entries = archive.getEntries("chr1", 180, 190);
+            Assert.assertEquals(entries.size(), 2);
+            Assert.assertEquals(entries.get(0).getKey(), "chr1:100-200");
+            Assert.assertEquals(entries.get(1).getKey(), "chr1:150-400");
+            Assert.assertEquals(archive.getEntries("chr1", 201, 500).size(), 1);
+            Assert.assertEquals(archive.getEntries("chr1", 1, 99), Collections.emptyList());
+            Assert.assertEquals(archive.getEntries("chr3", 1, 1000), Collections.emptyList());
+        }
+    }
+
+    // the interval index finds just what a brute-force search finds, including long intervals that start early
+    @Test
+    public void testManyIntervals() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final File file = File.createTempFile("assemblies", ".fmla");
+        file.deleteOnExit();
+        final Random random = new Random(47L);
+        final int[][] intervals = new int[500][];
+        try ( final FermiLiteAssemblyArchive.Writer writer = new FermiLiteAssemblyArchive.Writer(file.toPath()) ) {
+            for ( int idx = 0; idx != intervals.length; ++idx ) {
+                final int start = random.nextInt(100000);
+                final int end = start + (idx % 50 == 0 ? random.nextInt(50000) : random.nextInt(500));
+                intervals[idx] = new int[]{ start, end };
+                writer.add("tig" + idx, "chr1", start, end, assembly);
+            }
+        }
+        try ( final FermiLiteAssemblyArchive archive = FermiLiteAssemblyArchive.open(file.toPath()) ) {
+            for ( int query = 0; query != 200; ++query ) {
+                final int start = random.nextInt(110000);
+                final int end = start + random.nextInt(2000);
+                final Set<String> expected = new HashSet<>();
+                for ( int idx = 0; idx != intervals.length; ++idx ) {
+                    if ( intervals[idx][0] <= end && intervals[idx][1] >= start ) expected.add("tig" + idx);
+                }
+                final List<FermiLiteAssemblyArchive.Entry> entries = archive.getEntries("chr1", start, end);
+                final Set<String> actual = new HashSet<>();
+                for ( int idx = 0; idx != entries.size(); ++idx ) {
+                    actual.add(entries.get(idx).getKey());
+                    if ( idx > 0 ) Assert.assertTrue(entries.get(idx - 1).getStart() <= entries.get(idx).getStart());
+                }
+                Assert.assertEquals(actual.size(), entries.size());
+                Assert.assertEquals(actual, expected);
+            }
+            Assert.assertEquals(archive.getEntries("chr1", Integer.MIN_VALUE, Integer.MAX_VALUE).size(),
+                                intervals.length);
+        }
+    }
+
+    @Test
+    public void testAddView() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final File file = File.createTempFile("assemblies", ".fmla");
+        file.deleteOnExit();
+        try ( final FermiLiteAssemblyArchive.Writer writer = new FermiLiteAssemblyArchive.Writer(file.toPath());
+              final FermiLiteAssemblyView view = new FermiLiteAssemblyView(FermiLiteAssemblyArchive.encode(assembly),
+                                                                          false, ByteOrder.LITTLE_ENDIAN) ) {
+            writer.add("view", view);
+        }
+        try ( final FermiLiteAssemblyArchive archive = FermiLiteAssemblyArchive.open(file.toPath()) ) {
+            Assert.assertEquals(archive.getEntry("view").getNBytes(), FermiLiteAssemblyArchive.encode(assembly).limit());
+            Assert.assertEquals(toGFA(archive.readAssembly("view")), toGFA(assembly));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateKey() throws IOException {
+        final File file = File.createTempFile("assemblies", ".fmla");
+        file.deleteOnExit();
+        try ( final FermiLiteAssemblyArchive.Writer writer = new FermiLiteAssemblyArchive.Writer(file.toPath()) ) {
+            writer.add("bubble", FermiLiteAssemblyGraphTest.makeBubble());
+            writer.add("bubble", FermiLiteAssemblyGraphTest.makeBubble());
+        }
+    }
+
+    @Test
+    public void testCorruption() throws IOException {
+        final File file = createArchive(FermiLiteAssemblyGraphTest.makeBubble());
+        // flip a bit in the first assembly, just past the header
+        try ( final RandomAccessFile raf = new RandomAccessFile(file, "rw") ) {
+            raf.seek(20);
+            final int value = raf.read();
+            raf.seek(20);
+            raf.write(value ^ 1);
+        }
+        try ( final FermiLiteAssemblyArchive archive = FermiLiteAssemblyArchive.open(file.toPath()) ) {
+            try {
+                archive.openView("bubble");
+                Assert.fail("The corrupt assembly wasn't detected.");
+            } catch ( final IOException e ) {
+                // expected
+            }
+            // the other assemblies are fine
+            archive.openView("chr1:100-200").close();
+        }
+    }
+}
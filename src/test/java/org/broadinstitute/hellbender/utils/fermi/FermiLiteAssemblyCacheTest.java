@@ -0,0 +1,137 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public final class FermiLiteAssemblyCacheTest {
+    // the reads for the contig that FermiLiteAssemblerTest assembles, at some coverage and read length
+    private static List<FermiLiteAssemblerTest.FakeRead> genReads( final int coverage, final int readLen ) {
+        return FermiLiteAssemblerTest.genReads(FermiLiteAssemblerTest.expectedContig, coverage, readLen);
+    }
+
+    private static String toGFA( final FermiLiteAssembly assembly ) {
+        final StringWriter writer = new StringWriter();
+        try {
+            assembly.writeGFA(writer);
+        } catch ( final IOException ioe ) {
+            throw new AssertionError(ioe);
+        }
+        return writer.toString();
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        final FermiLiteAssemblyCache cache = new FermiLiteAssemblyCache(1L << 30);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            final FermiLiteAssembly assembly1 = cache.getAssembly(assembler, genReads(30, 100));
+            Assert.assertEquals(cache.getNMisses(), 1);
+            Assert.assertEquals(cache.getNHits(), 0);
+            Assert.assertNotNull(assembler.getLastMetrics());
+            final FermiLiteAssembly hit = cache.getAssembly(assembler, genReads(30, 100));
+            Assert.assertNotSame(hit, assembly1);
+            Assert.assertEquals(toGFA(hit), toGFA(assembly1));
+            Assert.assertEquals(cache.getNHits(), 1);
+            Assert.assertNull(assembler.getLastMetrics());
+
+            // different reads or different options miss
+            cache.getAssembly(assembler, genReads(20, 100));
+            Assert.assertEquals(cache.getNMisses(), 2);
+            assembler.setMinAsmOverlap(assembler.getMinAsmOverlap() + 1);
+            final FermiLiteAssembly assembly3 = cache.getAssembly(assembler, genReads(30, 100));
+            Assert.assertEquals(cache.getNMisses(), 3);
+            Assert.assertNotEquals(assembly3, assembly1);
+            Assert.assertEquals(cache.getNEntries(), 3);
+            Assert.assertEquals(cache.getNEvictions(), 0);
+
+            // but the thread count doesn't matter
+            assembler.setNThreads(assembler.getNThreads() + 3);
+            Assert.assertEquals(toGFA(cache.getAssembly(assembler, genReads(30, 100))), toGFA(assembly3));
+            Assert.assertEquals(cache.getNHits(), 2);
+        }
+    }
+
+    // what one caller does to its assembly doesn't affect what the next one gets
+    @Test
+    public void testAssembliesAreCopied() {
+        final FermiLiteAssemblyCache cache = new FermiLiteAssemblyCache(1L << 30);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            final FermiLiteAssembly assembly = cache.getAssembly(assembler, genReads(30, 100));
+            final String gfa = toGFA(assembly);
+            for ( final FermiLiteAssembly.Contig contig : assembly.getContigs() ) {
+                contig.setConnections(Collections.emptyList());
+                contig.getSequence()[0] = 'N';
+            }
+            Assert.assertEquals(toGFA(cache.getAssembly(assembler, genReads(30, 100))), gfa);
+            Assert.assertEquals(cache.getNHits(), 1);
+        }
+    }
+
+    private static String murmurHash3( final String text ) {
+        final long[] hash = FermiLiteAssemblyCache.murmurHash3(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+        final ByteBuffer bytes = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putLong(hash[0]).putLong(hash[1]);
+        final StringBuilder sb = new StringBuilder();
+        for ( final byte value : bytes.array() ) {
+            sb.append(String.format("%02x", value & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    // reference values for MurmurHash3_x64_128 with a seed of 0
+    @Test
+    public void testMurmurHash3() {
+        Assert.assertEquals(murmurHash3(""), "00000000000000000000000000000000");
+        Assert.assertEquals(murmurHash3("hello"), "029bbd41b3a7d8cb191dae486a901e5b");
+        Assert.assertEquals(murmurHash3("The quick brown fox jumps over the lazy dog"),
+                            "6c1b07bc7bbc4be347939ac4a93c437a");
+    }
+
+    @Test
+    public void testEviction() {
+        final List<FermiLiteAssemblerTest.FakeRead> reads = genReads(30, 100);
+        final long size;
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            size = FermiLiteAssemblyCache.estimateSize(assembler.createAssembly(reads));
+        }
+        final FermiLiteAssemblyCache cache = new FermiLiteAssemblyCache(size);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            cache.getAssembly(assembler, reads);
+            Assert.assertEquals(cache.getNBytes(), size);
+            cache.getAssembly(assembler, genReads(30, 90));
+            Assert.assertTrue(cache.getNBytes() <= size);
+            Assert.assertEquals(cache.getNEvictions(), 1);
+            cache.getAssembly(assembler, reads);
+            Assert.assertEquals(cache.getNMisses(), 3);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() {
+        final FermiLiteAssemblyCache cache = new FermiLiteAssemblyCache(1L << 30);
+        final int nThreads = 4;
+        final List<CompletableFuture<FermiLiteAssembly>> futures = new ArrayList<>();
+        for ( int idx = 0; idx != nThreads; ++idx ) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+                    return cache.getAssembly(assembler, genReads(30, 100));
+                }
+            }));
+        }
+        final String gfa = toGFA(futures.get(0).join());
+        for ( final CompletableFuture<FermiLiteAssembly> future : futures ) {
+            Assert.assertEquals(toGFA(future.join()), gfa);
+        }
+        Assert.assertEquals(cache.getNMisses(), 1);
+        Assert.assertEquals(cache.getNHits() + cache.getNCoalesced(), nThreads - 1);
+    }
+}
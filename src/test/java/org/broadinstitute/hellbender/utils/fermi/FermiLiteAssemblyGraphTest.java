@@ -0,0 +1,95 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class FermiLiteAssemblyGraphTest {
+    static FermiLiteAssembly.Contig makeContig( final String seq, final int nSupportingReads ) {
+        final byte[] coverage = new byte[seq.length()];
+        Arrays.fill(coverage, (byte)(33 + nSupportingReads));
+        return new FermiLiteAssembly.Contig(seq.getBytes(), coverage, nSupportingReads);
+    }
+
+    // tig0 -> tig1 (forward), tig0 -> tig2 (RC), tig1 has a gap to tig3, which has no edges of its own
+    static FermiLiteAssembly makeBubble() {
+        final FermiLiteAssembly.Contig tig0 = makeContig("ACGTACGTAA", 5);
+        final FermiLiteAssembly.Contig tig1 = makeContig("TAAGGGC", 3);
+        final FermiLiteAssembly.Contig tig2 = makeContig("CCCTTA", 2);
+        final FermiLiteAssembly.Contig tig3 = makeContig("GATTACA", 1);
+        final List<FermiLiteAssembly.Connection> conns0 = new ArrayList<>();
+        conns0.add(new FermiLiteAssembly.Connection(tig1, 3, false, false));
+        conns0.add(new FermiLiteAssembly.Connection(tig2, 3, false, true));
+        tig0.setConnections(conns0);
+        final List<FermiLiteAssembly.Connection> conns1 = new ArrayList<>();
+        conns1.add(conns0.get(0).rcConnection(tig0));
+        conns1.add(new FermiLiteAssembly.Connection(tig3, -4, false, false));
+        tig1.setConnections(conns1);
+        final List<FermiLiteAssembly.Connection> conns2 = new ArrayList<>();
+        conns2.add(conns0.get(1).rcConnection(tig0));
+        tig2.setConnections(conns2);
+        return new FermiLiteAssembly(Arrays.asList(tig0, tig1, tig2, tig3));
+    }
+
+    // ids are indices into the assembly, even when its contigs also belong to another assembly
+    @Test
+    public void testSharedContigs() {
+        final FermiLiteAssembly assembly = makeBubble();
+        final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>(assembly.getContigs());
+        Collections.reverse(contigs);
+        final FermiLiteAssembly reversed = new FermiLiteAssembly(contigs);
+        final FermiLiteAssemblyGraph graph = new FermiLiteAssemblyGraph(assembly);
+        final FermiLiteAssemblyGraph reversedGraph = new FermiLiteAssemblyGraph(reversed);
+        final int nContigs = assembly.getNContigs();
+        for ( int id = 0; id != nContigs; ++id ) {
+            final int reversedId = nContigs - 1 - id;
+            Assert.assertEquals(reversedGraph.getNEdges(reversedId), graph.getNEdges(id));
+            for ( int idx = 0; idx != graph.getNEdges(id); ++idx ) {
+                Assert.assertEquals(reversedGraph.getEdgeTarget(reversedGraph.getEdgeStart(reversedId) + idx),
+                                    nContigs - 1 - graph.getEdgeTarget(graph.getEdgeStart(id) + idx));
+            }
+        }
+    }
+
+    @Test
+    public void testGraphStructure() {
+        final FermiLiteAssemblyGraph graph = new FermiLiteAssemblyGraph(makeBubble());
+        Assert.assertEquals(graph.getNContigs(), 4);
+        Assert.assertEquals(graph.getNEdges(), 5);
+        Assert.assertEquals(graph.getNEdges(0), 2);
+        Assert.assertEquals(graph.getNEdges(3), 0);
+        Assert.assertEquals(graph.getContigLength(0), 10);
+        Assert.assertEquals(graph.getNSupportingReads(1), 3);
+
+        final int edge = graph.getEdgeStart(1) + 1;
+        Assert.assertEquals(graph.getEdgeSource(edge), 1);
+        Assert.assertEquals(graph.getEdgeTarget(edge), 3);
+        Assert.assertEquals(graph.getEdgeOverlapLen(edge), -4);
+        Assert.assertFalse(graph.isEdgeRC(edge));
+        Assert.assertFalse(graph.isEdgeTargetRC(edge));
+
+        // tig0 has two successors, and no predecessor
+        Assert.assertEquals(graph.getSoleSuccessor(0), -1);
+        Assert.assertEquals(graph.getSolePredecessor(0), -1);
+        // tig2's only edge is a successor, because tig0 overlaps its 3' end
+        final int edge2 = graph.getSoleSuccessor(2);
+        Assert.assertEquals(graph.getEdgeTarget(edge2), 0);
+        Assert.assertTrue(graph.isEdgeTargetRC(edge2));
+        Assert.assertEquals(graph.getRCEdge(edge2), graph.getEdgeStart(0) + 1);
+        Assert.assertEquals(graph.getRCEdge(graph.getEdgeStart(0) + 1), edge2);
+        // tig3 doesn't list its connection from tig1
+        Assert.assertEquals(graph.getRCEdge(edge), -1);
+
+        final int[] nVisited = new int[1];
+        graph.forEachEdge(0, ( e, targetId, overlapLen, isRC, isTargetRC ) -> {
+            Assert.assertEquals(graph.getEdgeSource(e), 0);
+            Assert.assertEquals(overlapLen, 3);
+            nVisited[0] += 1;
+        });
+        Assert.assertEquals(nVisited[0], 2);
+    }
+}
@@ -0,0 +1,77 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public final class FermiLiteAssemblyWriterTest {
+    private static byte[] writeGFA( final FermiLiteAssembly assembly, final boolean writeCoverage ) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try ( final FermiLiteAssemblyWriter writer = new FermiLiteAssemblyWriter(os, writeCoverage) ) {
+            writer.writeGFA(assembly);
+        }
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testGFAMatchesWriteGFA() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final StringWriter stringWriter = new StringWriter();
+        assembly.writeGFA(stringWriter);
+        Assert.assertEquals(new String(writeGFA(assembly, false), StandardCharsets.US_ASCII), stringWriter.toString());
+    }
+
+    @Test
+    public void testGFARoundTrip() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final byte[] gfa = writeGFA(assembly, true);
+        final FermiLiteAssembly reread = new FermiLiteAssemblyReader(new ByteArrayInputStream(gfa)).readGFA();
+        Assert.assertEquals(reread.getNContigs(), assembly.getNContigs());
+        for ( int idx = 0; idx != assembly.getNContigs(); ++idx ) {
+            final FermiLiteAssembly.Contig expected = assembly.getContig(idx);
+            final FermiLiteAssembly.Contig actual = reread.getContig(idx);
+            Assert.assertEquals(actual.getSequence(), expected.getSequence());
+            Assert.assertEquals(actual.getPerBaseCoverage(), expected.getPerBaseCoverage());
+            Assert.assertEquals(actual.getNSupportingReads(), expected.getNSupportingReads());
+        }
+        // tig3's missing back-link to tig1 is filled in when reading, so compare everything else
+        final FermiLiteAssemblyGraph expectedGraph = new FermiLiteAssemblyGraph(assembly);
+        final FermiLiteAssemblyGraph actualGraph = new FermiLiteAssemblyGraph(reread);
+        Assert.assertEquals(actualGraph.getNEdges(), expectedGraph.getNEdges() + 1);
+        for ( int id = 0; id != 3; ++id ) {
+            Assert.assertEquals(actualGraph.getNEdges(id), expectedGraph.getNEdges(id));
+            for ( int edge = expectedGraph.getEdgeStart(id); edge != expectedGraph.getEdgeEnd(id); ++edge ) {
+                final int actualEdge = edge - expectedGraph.getEdgeStart(id) + actualGraph.getEdgeStart(id);
+                Assert.assertEquals(actualGraph.getEdgeTarget(actualEdge), expectedGraph.getEdgeTarget(edge));
+                Assert.assertEquals(actualGraph.getEdgeOverlapLen(actualEdge), expectedGraph.getEdgeOverlapLen(edge));
+                Assert.assertEquals(actualGraph.isEdgeRC(actualEdge), expectedGraph.isEdgeRC(edge));
+                Assert.assertEquals(actualGraph.isEdgeTargetRC(actualEdge), expectedGraph.isEdgeTargetRC(edge));
+            }
+        }
+        // and writing it again gives the same GFA
+        Assert.assertEquals(writeGFA(reread, true), gfa);
+    }
+
+    @Test
+    public void testFASTA() throws IOException {
+        final FermiLiteAssembly assembly = FermiLiteAssemblyGraphTest.makeBubble();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try ( final FermiLiteAssemblyWriter writer = new FermiLiteAssemblyWriter(os, false) ) {
+            writer.writeFASTA(assembly);
+        }
+        final String fasta = new String(os.toByteArray(), StandardCharsets.US_ASCII);
+        Assert.assertTrue(fasta.startsWith(">tig0 LN:i:10\tRC:i:5\nACGTACGTAA\n>tig1 "));
+        Assert.assertTrue(fasta.endsWith(">tig3 LN:i:7\tRC:i:1\nGATTACA\n"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownSegment() throws IOException {
+        final byte[] gfa = "H\tVN:Z:1.0\nS\ttig0\tACGT\nL\ttig0\t+\ttig1\t+\t3M\n".getBytes(StandardCharsets.US_ASCII);
+        new FermiLiteAssemblyReader(new ByteArrayInputStream(gfa)).readGFA();
+    }
+}
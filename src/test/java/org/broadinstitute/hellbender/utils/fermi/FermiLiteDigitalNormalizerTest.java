@@ -0,0 +1,145 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public final class FermiLiteDigitalNormalizerTest {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+
+    private static final class Read implements FermiLiteAssembler.BasesAndQuals {
+        final int start;
+        final byte[] bases;
+        final byte[] quals;
+
+        Read( final int start, final byte[] bases ) {
+            this.start = start;
+            this.bases = bases;
+            quals = new byte[bases.length];
+            Arrays.fill(quals, (byte)30);
+        }
+
+        public byte[] getBases() { return bases; }
+        public byte[] getQuals() { return quals; }
+    }
+
+    private static byte[] genGenome( final int length, final Random random ) {
+        final byte[] genome = new byte[length];
+        for ( int idx = 0; idx != length; ++idx ) {
+            genome[idx] = BASES[random.nextInt(BASES.length)];
+        }
+        return genome;
+    }
+
+    private static List<Read> genReads( final byte[] genome, final int coverage, final int readLen, final Random random ) {
+        final int nReads = coverage * genome.length / readLen;
+        final List<Read> reads = new ArrayList<>(nReads);
+        for ( int idx = 0; idx != nReads; ++idx ) {
+            final int start = random.nextInt(genome.length - readLen + 1);
+            reads.add(new Read(start, Arrays.copyOfRange(genome, start, start + readLen)));
+        }
+        return reads;
+    }
+
+    @Test
+    public void testDeepCoverageIsCapped() {
+        final Random random = new Random(0);
+        final byte[] genome = genGenome(5000, random);
+        final int readLen = 100;
+        final List<Read> reads = genReads(genome, 200, readLen, random);
+        final List<Read> survivors = new FermiLiteDigitalNormalizer(20, 20).normalize(reads);
+
+        // far fewer reads, but the whole genome is still covered
+        Assert.assertTrue(survivors.size() < reads.size() / 4);
+        final int[] coverage = new int[genome.length];
+        for ( final Read read : survivors ) {
+            for ( int idx = read.start; idx != read.start + readLen; ++idx ) {
+                coverage[idx] += 1;
+            }
+        }
+        for ( int idx = readLen; idx < genome.length - readLen; ++idx ) {
+            Assert.assertTrue(coverage[idx] >= 10);
+        }
+
+        // the survivors are in their original order
+        int readIdx = 0;
+        for ( final Read survivor : survivors ) {
+            while ( reads.get(readIdx) != survivor ) ++readIdx;
+        }
+    }
+
+    @Test
+    public void testShallowCoverageIsUntouched() {
+        final Random random = new Random(0);
+        final List<Read> reads = genReads(genGenome(5000, random), 10, 100, random);
+        Assert.assertEquals(new FermiLiteDigitalNormalizer(20, 20).normalize(reads), reads);
+    }
+
+    @Test
+    public void testReadsWithoutKmersAreKept() {
+        final byte[] shortRead = "ACGT".getBytes();
+        final byte[] noCalls = new byte[50];
+        Arrays.fill(noCalls, (byte)'N');
+        final List<Read> reads = new ArrayList<>();
+        for ( int idx = 0; idx != 100; ++idx ) {
+            reads.add(new Read(0, shortRead));
+            reads.add(new Read(0, noCalls));
+        }
+        Assert.assertEquals(new FermiLiteDigitalNormalizer(20, 5).normalize(reads), reads);
+    }
+
+    // the survivors don't depend on thread scheduling, and a small sketch budget still caps the coverage
+    @Test
+    public void testReproducible() {
+        final Random random = new Random(0);
+        final List<Read> reads = genReads(genGenome(20000, random), 100, 100, random);
+        final FermiLiteDigitalNormalizer normalizer = new FermiLiteDigitalNormalizer(20, 20);
+        final List<Read> survivors = normalizer.normalize(reads);
+        for ( int trial = 0; trial != 5; ++trial ) {
+            Assert.assertEquals(normalizer.normalize(reads), survivors);
+        }
+        final FermiLiteDigitalNormalizer small = new FermiLiteDigitalNormalizer(20, 20, 1 << 16);
+        Assert.assertEquals(small.getMaxSketchBytes(), 1 << 16);
+        final List<Read> smallSurvivors = small.normalize(reads);
+        Assert.assertTrue(smallSurvivors.size() < reads.size() / 2);
+        Assert.assertEquals(small.normalize(reads), smallSurvivors);
+    }
+
+    // streamed reads give the same survivors as a list (when both fill the sketch budget), and the survivors of
+    // each batch are handed over before all the reads have been taken
+    @Test
+    public void testStreaming() {
+        final Random random = new Random(0);
+        final List<Read> reads = genReads(genGenome(20000, random), 100, 100, random);
+        final FermiLiteDigitalNormalizer normalizer = new FermiLiteDigitalNormalizer(20, 20, 1 << 16);
+        final Iterator<Read> readsItr = reads.iterator();
+        final int[] nTaken = new int[1];
+        final Iterator<Read> countingItr = new Iterator<Read>() {
+            @Override public boolean hasNext() { return readsItr.hasNext(); }
+            @Override public Read next() { nTaken[0] += 1; return readsItr.next(); }
+        };
+        final List<Read> survivors = new ArrayList<>();
+        final List<Integer> nTakenAtSurvivor = new ArrayList<>();
+        normalizer.normalize(countingItr, read -> {
+            survivors.add(read);
+            nTakenAtSurvivor.add(nTaken[0]);
+        });
+        Assert.assertEquals(survivors, normalizer.normalize(reads));
+        Assert.assertTrue(nTakenAtSurvivor.get(0) < reads.size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSketchTooSmall() {
+        new FermiLiteDigitalNormalizer(20, 20, 1024);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKmerSizeTooBig() {
+        new FermiLiteDigitalNormalizer(32, 20);
+    }
+}
@@ -0,0 +1,131 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public final class FermiLiteLibraryLoaderTest {
+    @Test
+    public void testChooseVariants() {
+        final HashSet<String> haswellFlags = new HashSet<>(Arrays.asList(
+                "fpu", "sse2", "ssse3", "sse4_1", "sse4_2", "cx16", "popcnt", "avx", "avx2",
+                "bmi1", "bmi2", "fma", "f16c", "movbe", "abm", "xsave"));
+        Assert.assertEquals(FermiLiteLibraryLoader.chooseVariants(haswellFlags),
+                Arrays.asList("avx2", "sse42", FermiLiteLibraryLoader.BASELINE));
+        haswellFlags.remove("bmi2");
+        Assert.assertEquals(FermiLiteLibraryLoader.chooseVariants(haswellFlags),
+                Arrays.asList("sse42", FermiLiteLibraryLoader.BASELINE));
+        Assert.assertEquals(FermiLiteLibraryLoader.chooseVariants(Collections.emptySet()),
+                Collections.singletonList(FermiLiteLibraryLoader.BASELINE));
+    }
+
+    @Test
+    public void testResourceNames() {
+        Assert.assertEquals(FermiLiteLibraryLoader.getResourceName(FermiLiteLibraryLoader.BASELINE, "Linux.so"),
+                "/libfml.Linux.so");
+        Assert.assertEquals(FermiLiteLibraryLoader.getResourceName("avx2", "Linux.so"), "/libfml.avx2.Linux.so");
+    }
+
+    private static Path extractToCache( final Path cacheDir, final byte[] libBytes ) throws IOException {
+        return FermiLiteLibraryLoader.extractToCache(cacheDir, "libfml.Linux.so",
+                FermiLiteLibraryLoader.hash(libBytes), libBytes.length, () -> new ByteArrayInputStream(libBytes));
+    }
+
+    @Test
+    public void testExtractToCache() throws IOException {
+        final Path cacheDir = Files.createTempDirectory("fmlcache");
+        final byte[] libBytes = "not really a library".getBytes();
+        final String sha256 = FermiLiteLibraryLoader.hash(libBytes);
+        final Path libPath = extractToCache(cacheDir, libBytes);
+        Assert.assertEquals(Files.readAllBytes(libPath), libBytes);
+        final long modTime = Files.getLastModifiedTime(libPath).toMillis();
+
+        // reused as is, without looking at the library in the jar
+        Assert.assertEquals(FermiLiteLibraryLoader.extractToCache(cacheDir, "libfml.Linux.so", sha256, libBytes.length,
+                () -> { throw new IOException("The cached copy wasn't used."); }), libPath);
+        Assert.assertEquals(Files.getLastModifiedTime(libPath).toMillis(), modTime);
+
+        // replaced if it's been truncated
+        Files.write(libPath, "damaged".getBytes());
+        Assert.assertEquals(extractToCache(cacheDir, libBytes), libPath);
+        Assert.assertEquals(Files.readAllBytes(libPath), libBytes);
+
+        // different contents go into a different directory
+        final Path otherPath = extractToCache(cacheDir, "other".getBytes());
+        Assert.assertNotEquals(otherPath.getParent(), libPath.getParent());
+        Assert.assertEquals(otherPath.getParent().getParent(), cacheDir);
+
+        // a missing library isn't cached
+        Assert.assertNull(FermiLiteLibraryLoader.extractToCache(cacheDir, "libfml.avx2.Linux.so", sha256,
+                libBytes.length, () -> null));
+    }
+
+    @Test
+    public void testExtractWrongContents() throws IOException {
+        final Path cacheDir = Files.createTempDirectory("fmlcache");
+        final byte[] libBytes = "not really a library".getBytes();
+        final byte[] otherBytes = "not really a LIBRARY".getBytes();
+        try {
+            FermiLiteLibraryLoader.extractToCache(cacheDir, "libfml.Linux.so", FermiLiteLibraryLoader.hash(libBytes),
+                    libBytes.length, () -> new ByteArrayInputStream(otherBytes));
+            Assert.fail("A library that doesn't match its hash was cached.");
+        } catch ( final IOException ioe ) {
+            // expected
+        }
+        final Path dir = cacheDir.resolve(FermiLiteLibraryLoader.hash(libBytes));
+        try ( final Stream<Path> files = Files.list(dir) ) {
+            Assert.assertEquals(files.count(), 0L);
+        }
+    }
+
+    @Test
+    public void testPrivateCache() throws IOException {
+        final Path tmpDir = Files.createTempDirectory("fmlcache");
+        if ( !tmpDir.getFileSystem().supportedFileAttributeViews().contains("posix") ) {
+            throw new SkipException("Not a POSIX file system.");
+        }
+        final Path cacheDir = tmpDir.resolve("cache");
+        final byte[] libBytes = "not really a library".getBytes();
+        final Path libPath = extractToCache(cacheDir, libBytes);
+        final Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        Assert.assertEquals(Files.getPosixFilePermissions(cacheDir), ownerOnly);
+        Assert.assertEquals(Files.getPosixFilePermissions(libPath.getParent()), ownerOnly);
+
+        // a cache that others can write to isn't used
+        Files.setPosixFilePermissions(cacheDir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        try {
+            extractToCache(cacheDir, libBytes);
+            Assert.fail("A cache directory writable by others was used.");
+        } catch ( final IOException ioe ) {
+            // expected
+        }
+
+        // nor is a symbolic link to a cache
+        final Path link = Files.createSymbolicLink(tmpDir.resolve("link"), cacheDir);
+        Files.setPosixFilePermissions(cacheDir, ownerOnly);
+        try {
+            extractToCache(link, libBytes);
+            Assert.fail("A symbolic link to a cache directory was used.");
+        } catch ( final IOException ioe ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLoaded() {
+        FermiLiteAssembler.getFermiLiteVersion();
+        Assert.assertNotNull(FermiLiteLibraryLoader.getLoadedLibrary());
+    }
+}
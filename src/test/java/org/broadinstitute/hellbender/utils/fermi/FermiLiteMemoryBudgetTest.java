@@ -0,0 +1,196 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class FermiLiteMemoryBudgetTest {
+    @Test
+    public void testFailFast() {
+        final FermiLiteMemoryBudget budget = new FermiLiteMemoryBudget(1000, FermiLiteMemoryBudget.Mode.FAIL_FAST);
+        try ( final FermiLiteMemoryBudget.Reservation reservation = budget.reserve(600) ) {
+            Assert.assertEquals(budget.getReservedBytes(), reservation.getNBytes());
+            try {
+                budget.reserve(600);
+                Assert.fail("reservation should have been rejected");
+            } catch ( final IllegalStateException ise ) {
+                Assert.assertEquals(budget.getNRejected(), 1L);
+            }
+            budget.reserve(400).close();
+        }
+        Assert.assertEquals(budget.getReservedBytes(), 0L);
+        Assert.assertEquals(budget.getNReservations(), 0);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final FermiLiteMemoryBudget budget = new FermiLiteMemoryBudget(1000, FermiLiteMemoryBudget.Mode.BLOCK);
+        final FermiLiteMemoryBudget.Reservation reservation = budget.reserve(600);
+        final CompletableFuture<Long> waiter = CompletableFuture.supplyAsync(() -> {
+            try ( final FermiLiteMemoryBudget.Reservation reservation2 = budget.reserve(600) ) {
+                return reservation2.getNBytes();
+            }
+        });
+        try {
+            waiter.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("reservation should have blocked");
+        } catch ( final TimeoutException te ) {
+            // expected
+        }
+        reservation.close();
+        Assert.assertEquals(waiter.get(10, TimeUnit.SECONDS).longValue(), 600L);
+        Assert.assertEquals(budget.getNBlocked(), 1L);
+
+        // a reservation bigger than the whole budget gets in when nothing else is running
+        budget.reserve(5000).close();
+        Assert.assertEquals(budget.getReservedBytes(), 0L);
+    }
+
+    // an assembly's reservation is released even if the assembly fails
+    @Test
+    public void testReserveForAssembly() {
+        final FermiLiteMemoryBudget budget = new FermiLiteMemoryBudget(1L << 30, FermiLiteMemoryBudget.Mode.FAIL_FAST);
+        FermiLiteMemoryBudget.setProcessBudget(budget);
+        try {
+            final long reserved = FermiLiteMemoryBudget.reserveForAssembly(2, 10, 1000, budget::getReservedBytes);
+            Assert.assertEquals(reserved,
+                    FermiLiteMemoryBudget.estimateFootprint(10, 1000) + FermiLiteMemoryBudget.BYTES_PER_ASSEMBLY);
+            try {
+                FermiLiteMemoryBudget.reserveForAssembly(1, 10, 1000, () -> { throw new IllegalStateException(); });
+                Assert.fail("assembly should have thrown");
+            } catch ( final IllegalStateException ise ) {
+                // expected
+            }
+        } finally {
+            FermiLiteMemoryBudget.setProcessBudget(null);
+        }
+        Assert.assertEquals(budget.getReservedBytes(), 0L);
+        Assert.assertEquals(budget.getNReservations(), 0);
+    }
+
+    @Test
+    public void testProcessBudget() {
+        final List<FermiLiteAssemblerTest.FakeRead> reads =
+                FermiLiteAssemblerTest.genReads(FermiLiteAssemblerTest.expectedContig, 5, 100);
+        final long usedBytes = FermiLiteMemoryBudget.getUsedBytes();
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            final long footprint = FermiLiteMemoryBudget.estimateFootprint(reads.size(), 100L*reads.size());
+            FermiLiteMemoryBudget.setProcessBudget(
+                    new FermiLiteMemoryBudget(footprint - 1, FermiLiteMemoryBudget.Mode.FAIL_FAST));
+            try {
+                assembler.createAssembly(reads);
+                Assert.fail("assembly should have been rejected");
+            } catch ( final IllegalStateException ise ) {
+                // expected
+            }
+            final FermiLiteMemoryBudget budget =
+                    new FermiLiteMemoryBudget(footprint, FermiLiteMemoryBudget.Mode.FAIL_FAST);
+            FermiLiteMemoryBudget.setProcessBudget(budget);
+            assembler.createAssembly(reads);
+            Assert.assertEquals(budget.getReservedBytes(), 0L);
+            try ( final FermiLiteAssemblyView view = assembler.createAssemblyView(reads) ) {
+                Assert.assertTrue(FermiLiteMemoryBudget.getUsedBytes() >= usedBytes + assembler.getReadCapacity());
+                Assert.assertTrue(view.isOpen());
+            }
+        } finally {
+            FermiLiteMemoryBudget.setProcessBudget(null);
+        }
+        Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes);
+    }
+
+    // a session whose assembly is rejected still has its reads
+    @Test
+    public void testRejectedSession() {
+        final List<FermiLiteAssemblerTest.FakeRead> reads =
+                FermiLiteAssemblerTest.genReads(FermiLiteAssemblerTest.expectedContig, 5, 100);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler();
+              final FermiLiteAssemblySession session = assembler.openSession() ) {
+            session.addReads(reads);
+            final long footprint = FermiLiteMemoryBudget.estimateFootprint(reads.size(), 100L*reads.size());
+            FermiLiteMemoryBudget.setProcessBudget(
+                    new FermiLiteMemoryBudget(footprint - 1, FermiLiteMemoryBudget.Mode.FAIL_FAST));
+            try {
+                session.assemble();
+                Assert.fail("assembly should have been rejected");
+            } catch ( final IllegalStateException ise ) {
+                // expected
+            }
+            Assert.assertEquals(session.getNReads(), (long)reads.size());
+            Assert.assertEquals(session.getNBases(), 100L*reads.size());
+            FermiLiteMemoryBudget.setProcessBudget(
+                    new FermiLiteMemoryBudget(footprint, FermiLiteMemoryBudget.Mode.FAIL_FAST));
+            session.assemble();
+            Assert.assertEquals(assembler.getLastMetrics().getNReads(), (long)reads.size());
+            Assert.assertEquals(session.getNReads(), 0L);
+        } finally {
+            FermiLiteMemoryBudget.setProcessBudget(null);
+        }
+    }
+
+    // the reads that a session accumulates count as used until they're assembled, or the session is closed
+    @Test
+    public void testSessionReadsAreUsed() {
+        final List<FermiLiteAssemblerTest.FakeRead> reads =
+                FermiLiteAssemblerTest.genReads(FermiLiteAssemblerTest.expectedContig, 5, 100);
+        final long usedBytes = FermiLiteMemoryBudget.getUsedBytes();
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            try ( final FermiLiteAssemblySession session = assembler.openSession() ) {
+                session.addReads(reads);
+                final long chunkBytes = FermiLiteMemoryBudget.getUsedBytes() - usedBytes - assembler.getReadCapacity();
+                Assert.assertTrue(chunkBytes > 200L*reads.size());
+                session.addReads(reads);
+                Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(),
+                                    usedBytes + assembler.getReadCapacity() + 2*chunkBytes);
+                session.assemble();
+                Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes + assembler.getReadCapacity());
+                session.addReads(reads);
+            }
+            Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes + assembler.getReadCapacity());
+        }
+        Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes);
+    }
+
+    // a staged assembly holds one reservation until the reads, and everything made from them, are gone
+    @Test
+    public void testStagedAssembly() {
+        final List<FermiLiteAssemblerTest.FakeRead> reads =
+                FermiLiteAssemblerTest.genReads(FermiLiteAssemblerTest.expectedContig, 5, 100);
+        final long footprint = FermiLiteMemoryBudget.estimateFootprint(reads.size(), 100L*reads.size());
+        final FermiLiteMemoryBudget budget = new FermiLiteMemoryBudget(footprint, FermiLiteMemoryBudget.Mode.FAIL_FAST);
+        final long usedBytes = FermiLiteMemoryBudget.getUsedBytes();
+        FermiLiteMemoryBudget.setProcessBudget(budget);
+        try ( final FermiLiteAssembler assembler = new FermiLiteAssembler() ) {
+            final FermiLiteStages.Index index;
+            try ( final FermiLiteStages.Reads nativeReads = assembler.loadReads(reads) ) {
+                Assert.assertEquals(budget.getReservedBytes(), footprint);
+                Assert.assertTrue(FermiLiteMemoryBudget.getUsedBytes() >
+                                    usedBytes + assembler.getReadCapacity() + 200L*reads.size());
+                try {
+                    assembler.createAssembly(reads);
+                    Assert.fail("assembly should have been rejected");
+                } catch ( final IllegalStateException ise ) {
+                    // expected
+                }
+                index = assembler.buildIndex(nativeReads);
+            }
+            Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes + assembler.getReadCapacity());
+            Assert.assertEquals(budget.getNReservations(), 1);
+            try ( final FermiLiteStages.OverlapGraph graph = assembler.buildGraph(index) ) {
+                Assert.assertEquals(budget.getNReservations(), 1);
+                assembler.cleanGraph(graph);
+                Assert.assertTrue(assembler.emitUnitigs(graph).getNContigs() > 0);
+            }
+            Assert.assertEquals(budget.getNReservations(), 1);
+            index.close();
+            Assert.assertEquals(budget.getReservedBytes(), 0L);
+            Assert.assertEquals(budget.getNReservations(), 0);
+        } finally {
+            FermiLiteMemoryBudget.setProcessBudget(null);
+        }
+        Assert.assertEquals(FermiLiteMemoryBudget.getUsedBytes(), usedBytes);
+    }
+}
@@ -0,0 +1,154 @@
+package org.broadinstitute.hellbender.utils.fermi;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class FermiLitePathEnumeratorTest {
+    @Test
+    public void testBubble() {
+        final List<FermiLitePathEnumerator.Path> paths =
+                new FermiLitePathEnumerator(FermiLiteAssemblyGraphTest.makeBubble()).enumerate();
+        Assert.assertEquals(paths.size(), 3);
+
+        // best supported first:  tig0 then the RC of tig2
+        final FermiLitePathEnumerator.Path path0 = paths.get(0);
+        Assert.assertEquals(path0.getNContigs(), 2);
+        Assert.assertEquals(path0.getContigId(1), 2);
+        Assert.assertTrue(path0.isContigRC(1));
+        Assert.assertEquals(new String(path0.getSequence()), "ACGTACGTAAGGG");
+        Assert.assertEquals(path0.getMinSupportingReads(), 2);
+
+        // tig0, tig1, and then a gap before tig3
+        final FermiLitePathEnumerator.Path path1 = paths.get(1);
+        Assert.assertEquals(path1.getNContigs(), 3);
+        Assert.assertEquals(path1.getOverlapLen(2), -4);
+        Assert.assertEquals(new String(path1.getSequence()), "ACGTACGTAAGGGCNNNNGATTACA");
+        Assert.assertEquals(path1.getTotalSupportingReads(), 9L);
+        Assert.assertFalse(path1.isTruncated());
+
+        // tig3 doesn't list its edge to tig1, so it's a path on its own, and it's reported in just one orientation
+        Assert.assertEquals(paths.get(2).getNContigs(), 1);
+        Assert.assertEquals(paths.get(2).getContigId(0), 3);
+    }
+
+    @Test
+    public void testCaps() {
+        final FermiLitePathEnumerator enumerator = new FermiLitePathEnumerator(FermiLiteAssemblyGraphTest.makeBubble());
+        enumerator.setMaxBranching(1);
+        // only tig1 is followed from tig0, and the path through tig2 isn't searched for again from tig2's end
+        final List<FermiLitePathEnumerator.Path> branchPaths = enumerator.enumerate();
+        Assert.assertEquals(branchPaths.size(), 2);
+        Assert.assertEquals(branchPaths.get(0).getNContigs(), 3);
+        Assert.assertEquals(branchPaths.get(0).getContigId(1), 1);
+
+        enumerator.setMaxBranching(FermiLitePathEnumerator.DEFAULT_MAX_BRANCHING);
+        enumerator.setMaxPaths(1);
+        Assert.assertEquals(enumerator.enumerate().size(), 1);
+
+        enumerator.setMaxPaths(FermiLitePathEnumerator.DEFAULT_MAX_PATHS);
+        enumerator.setMaxPathLength(10);
+        final List<FermiLitePathEnumerator.Path> paths = enumerator.enumerate();
+        Assert.assertTrue(paths.get(0).isTruncated());
+        Assert.assertEquals(paths.get(0).getNContigs(), 1);
+
+        // a truncated path is trimmed to the maximum length
+        enumerator.setMaxPathLength(12);
+        final FermiLitePathEnumerator.Path trimmed = enumerator.enumerate().get(0);
+        Assert.assertTrue(trimmed.isTruncated());
+        Assert.assertEquals(trimmed.getNContigs(), 2);
+        Assert.assertEquals(new String(trimmed.getSequence()), "ACGTACGTAAGG");
+    }
+
+    // a chain is searched from just one end (its first contig, forward), so it takes one expansion per contig
+    @Test
+    public void testOneOrientation() {
+        final FermiLiteAssembly.Contig tig0 = FermiLiteAssemblyGraphTest.makeContig("AAAAC", 3);
+        final FermiLiteAssembly.Contig tig1 = FermiLiteAssemblyGraphTest.makeContig("CGGGT", 3);
+        final FermiLiteAssembly.Contig tig2 = FermiLiteAssemblyGraphTest.makeContig("TTCCA", 5);
+        final List<FermiLiteAssembly.Contig> contigs = Arrays.asList(tig0, tig1, tig2);
+        final List<List<FermiLiteAssembly.Connection>> connections =
+                Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        connect(contigs, connections, tig0, tig1);
+        connect(contigs, connections, tig1, tig2);
+        for ( int idx = 0; idx != contigs.size(); ++idx ) {
+            contigs.get(idx).setConnections(connections.get(idx));
+        }
+        final FermiLitePathEnumerator enumerator = new FermiLitePathEnumerator(new FermiLiteAssembly(contigs));
+        enumerator.setMaxExpansions(3);
+        final List<FermiLitePathEnumerator.Path> paths = enumerator.enumerate();
+        Assert.assertEquals(paths.size(), 1);
+        Assert.assertEquals(paths.get(0).getContigId(0), 0);
+        Assert.assertFalse(paths.get(0).isContigRC(0));
+        Assert.assertEquals(new String(paths.get(0).getSequence()), "AAAACGGGTTCCA");
+    }
+
+    // a chain of bubbles has 2^n paths, but the caps keep the search small
+    @Test
+    public void testBubbleChain() {
+        final int nBubbles = 30;
+        final List<FermiLiteAssembly.Contig> contigs = new ArrayList<>();
+        final List<List<FermiLiteAssembly.Connection>> connections = new ArrayList<>();
+        final FermiLiteAssembly.Contig first = FermiLiteAssemblyGraphTest.makeContig("ACGT", 10);
+        contigs.add(first);
+        connections.add(new ArrayList<>());
+        FermiLiteAssembly.Contig prev = first;
+        for ( int idx = 0; idx != nBubbles; ++idx ) {
+            final FermiLiteAssembly.Contig alt1 = FermiLiteAssemblyGraphTest.makeContig("GTAC", 10 - idx % 3);
+            final FermiLiteAssembly.Contig alt2 = FermiLiteAssemblyGraphTest.makeContig("GTTC", 2);
+            final FermiLiteAssembly.Contig join = FermiLiteAssemblyGraphTest.makeContig("ACGT", 10);
+            for ( final FermiLiteAssembly.Contig alt : Arrays.asList(alt1, alt2) ) {
+                contigs.add(alt);
+                connections.add(new ArrayList<>());
+                connect(contigs, connections, prev, alt);
+            }
+            contigs.add(join);
+            connections.add(new ArrayList<>());
+            connect(contigs, connections, alt1, join);
+            connect(contigs, connections, alt2, join);
+            prev = join;
+        }
+        for ( int idx = 0; idx != contigs.size(); ++idx ) {
+            contigs.get(idx).setConnections(connections.get(idx));
+        }
+        final FermiLitePathEnumerator enumerator = new FermiLitePathEnumerator(new FermiLiteAssembly(contigs));
+        enumerator.setMaxPaths(5);
+        final List<FermiLitePathEnumerator.Path> paths = enumerator.enumerate();
+        Assert.assertEquals(paths.size(), 5);
+        // the first path takes the well-supported branch of every bubble
+        Assert.assertEquals(paths.get(0).getMinSupportingReads(), 8);
+        Assert.assertEquals(paths.get(0).getNContigs(), 2*nBubbles + 1);
+        Assert.assertEquals(paths.get(0).getLength(), 4 + 3*2*nBubbles);
+    }
+
+    @Test
+    public void testComponents() {
+        final FermiLiteAssembly.Contig tig0 = FermiLiteAssemblyGraphTest.makeContig("AAAAC", 3);
+        final FermiLiteAssembly.Contig tig1 = FermiLiteAssemblyGraphTest.makeContig("ACGGG", 3);
+        final FermiLiteAssembly.Contig tig2 = FermiLiteAssemblyGraphTest.makeContig("TTTTT", 7);
+        final FermiLiteAssembly.Connection conn = new FermiLiteAssembly.Connection(tig1, 2, false, false);
+        tig0.setConnections(Collections.singletonList(conn));
+        tig1.setConnections(Collections.singletonList(conn.rcConnection(tig0)));
+        tig2.setConnections(Collections.emptyList());
+        final List<FermiLitePathEnumerator.Path> paths =
+                new FermiLitePathEnumerator(new FermiLiteAssembly(Arrays.asList(tig0, tig1, tig2))).enumerate();
+        Assert.assertEquals(paths.size(), 2);
+        Assert.assertEquals(paths.get(0).getComponent(), 0);
+        Assert.assertEquals(new String(paths.get(0).getSequence()), "AAAACGGG");
+        Assert.assertEquals(paths.get(1).getComponent(), 1);
+        Assert.assertEquals(new String(paths.get(1).getSequence()), "TTTTT");
+    }
+
+    // a forward overlap of 1 base from contig1 to contig2, listed by both
+    private static void connect( final List<FermiLiteAssembly.Contig> contigs,
+                                 final List<List<FermiLiteAssembly.Connection>> connections,
+                                 final FermiLiteAssembly.Contig contig1, final FermiLiteAssembly.Contig contig2 ) {
+        final FermiLiteAssembly.Connection conn = new FermiLiteAssembly.Connection(contig2, 1, false, false);
+        connections.get(contigs.indexOf(contig1)).add(conn);
+        connections.get(contigs.indexOf(contig2)).add(conn.rcConnection(contig1));
+    }
+}